@@ -0,0 +1,151 @@
+package edu.macalester.mscs.centrality;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.util.*;
+
+/**
+ * A registry of the directives that can appear in a centrality template.
+ *
+ * A directive is a template line of the form "%%% name". When the template is rendered,
+ * the directive is replaced by the lines it writes. Any attribute can be registered under
+ * a prefix, which creates three directives at once:
+ *  - prefixData, the bar chart data (value / max and the short name of each character)
+ *  - prefixRanking, the circled ranks next to each bar
+ *  - prefixTick, the x tick labels ending in the maximum value
+ * There is also a yCoords directive for the symbolic y coordinates of the table.
+ */
+public class CentralityDirectives {
+
+    public static final String RANK_LINE_TEMPLATE = "\\node at (#XVAL,#YVAL) { \\tiny \\mycircled[10]{#RANK}  };";
+
+    public static final String DECIMAL_TICK_FORMAT = "#.###";
+
+    private static final String[] RANK_LINE_PARTS = RANK_LINE_TEMPLATE.split("#XVAL|#YVAL|#RANK", -1);
+
+    /**
+     * A directive writes zero or more lines in place of its template line.
+     */
+    public interface Directive {
+        void render(Set<NetworkCharacter> tableChars, CentralityRanking ranking, Writer writer) throws IOException;
+    }
+
+    private final Map<String, Directive> directives = new HashMap<>();
+
+    /**
+     * Returns a registry containing the yCoords directive and the data, ranking
+     * and tick directives for all of the standard centrality attributes.
+     * @return
+     */
+    public static CentralityDirectives defaults() {
+        CentralityDirectives directives = new CentralityDirectives();
+        directives.register("yCoords", new Directive() {
+            @Override
+            public void render(Set<NetworkCharacter> tableChars, CentralityRanking ranking, Writer writer) throws IOException {
+                writeLine(writer, getCoordinateLine(tableChars));
+            }
+        });
+        directives.registerAttribute("degree", NetworkCharacter.DEGREE, null, false);
+        directives.registerAttribute("weightedDegree", NetworkCharacter.WEIGHTED_DEGREE, null, false);
+        directives.registerAttribute("eigenvector", NetworkCharacter.EIGENVECTOR_CENTRALITY, DECIMAL_TICK_FORMAT, false);
+        directives.registerAttribute("pageRank", NetworkCharacter.PAGE_RANK, DECIMAL_TICK_FORMAT, false);
+        directives.registerAttribute("closeness", NetworkCharacter.CLOSENESS_CENTRALITY, DECIMAL_TICK_FORMAT, true);
+        directives.registerAttribute("betweenness", NetworkCharacter.BETWEENNESS_CENTRALITY, DECIMAL_TICK_FORMAT, false);
+        directives.registerAttribute("authority", NetworkCharacter.AUTHORITY, DECIMAL_TICK_FORMAT, false);
+        directives.registerAttribute("clustering", NetworkCharacter.CLUSTERING_COEFFICIENT, DECIMAL_TICK_FORMAT, false);
+        return directives;
+    }
+
+    public void register(String name, Directive directive) {
+        directives.put(name, directive);
+    }
+
+    /**
+     * Registers the prefixData, prefixRanking and prefixTick directives for an attribute.
+     * @param prefix
+     * @param attributeName
+     * @param tickFormat a DecimalFormat pattern for the maximum tick, or null to truncate it to an integer
+     * @param reverse if true, the smallest value is ranked first
+     */
+    public void registerAttribute(String prefix, final String attributeName, final String tickFormat, final boolean reverse) {
+        register(prefix + "Data", new Directive() {
+            @Override
+            public void render(Set<NetworkCharacter> tableChars, CentralityRanking ranking, Writer writer) throws IOException {
+                double max = ranking.getMax(attributeName);
+                for (NetworkCharacter character : tableChars) {
+                    double value = ranking.getValue(character, attributeName) / max;
+                    writeLine(writer, value + "\t" + character.getShortName());
+                }
+            }
+        });
+        register(prefix + "Ranking", new Directive() {
+            @Override
+            public void render(Set<NetworkCharacter> tableChars, CentralityRanking ranking, Writer writer) throws IOException {
+                double max = ranking.getMax(attributeName);
+                double yval = tableChars.size() * 0.5 - 0.05;
+                for (NetworkCharacter character : tableChars) {
+                    double xval = ranking.getValue(character, attributeName) / max * 1.3 + .22;
+                    writeLine(writer, getRankLine(xval, yval, ranking.getRank(character, attributeName, reverse)));
+                    yval = yval - 0.5;
+                }
+            }
+        });
+        register(prefix + "Tick", new Directive() {
+            @Override
+            public void render(Set<NetworkCharacter> tableChars, CentralityRanking ranking, Writer writer) throws IOException {
+                double max = ranking.getMax(attributeName);
+                String label = (tickFormat == null) ? Integer.toString((int) max) : new DecimalFormat(tickFormat).format(max);
+                writeLine(writer, "xticklabels={0,,,," + label + "},");
+            }
+        });
+    }
+
+    public boolean contains(String name) {
+        return directives.containsKey(name);
+    }
+
+    public Directive get(String name) {
+        return directives.get(name);
+    }
+
+    public Set<String> getNames() {
+        return directives.keySet();
+    }
+
+    /**
+     * Returns the symbolic y coordinates line, listing the short names of the table characters in order.
+     * @param tableChars
+     * @return
+     */
+    public static String getCoordinateLine(Collection<NetworkCharacter> tableChars) {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("  symbolic y coords={ ");
+
+        for (NetworkCharacter nc : tableChars) {
+            sb.append(nc.getShortName()).append(", ");
+        }
+
+        sb.deleteCharAt(sb.length()-1);
+        sb.append("},");
+
+        return sb.toString();
+    }
+
+    /**
+     * Fills in RANK_LINE_TEMPLATE, equivalent to replacing #XVAL, #YVAL and #RANK in order.
+     * @param xval
+     * @param yval
+     * @param rank
+     * @return
+     */
+    public static String getRankLine(double xval, double yval, int rank) {
+        return RANK_LINE_PARTS[0] + xval + RANK_LINE_PARTS[1] + yval + RANK_LINE_PARTS[2] + rank + RANK_LINE_PARTS[3];
+    }
+
+    static void writeLine(Writer writer, String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+}
@@ -0,0 +1,222 @@
+package edu.macalester.mscs.centrality;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Precomputes the maximum value and the ranks of every character for a set of attributes.
+ *
+ * Each attribute is parsed and sorted exactly once (attributes are processed in parallel),
+ * after which maxima and ranks are constant-time lookups. Both competition ranks (1, 2, 2, 4)
+ * and dense ranks (1, 2, 2, 3) are available, in descending order (largest value is rank 1)
+ * or in reverse order (smallest value is rank 1).
+ *
+ * Attributes that are missing from the characters are silently skipped.
+ */
+public class CentralityRanking {
+
+    private final List<NetworkCharacter> characters;
+    private final Map<NetworkCharacter, Integer> indices = new HashMap<>();
+    private final Map<String, AttributeRanking> rankings = new HashMap<>();
+
+    public CentralityRanking(Collection<NetworkCharacter> characters) {
+        this(characters, Arrays.asList(NetworkCharacter.CENTRALITY_ATTRIBUTES));
+    }
+
+    public CentralityRanking(Collection<NetworkCharacter> characters, Collection<String> attributeNames) {
+        this.characters = new ArrayList<>(characters);
+        for (int i = 0; i < this.characters.size(); i++) {
+            indices.put(this.characters.get(i), i);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(attributeNames.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+            Map<String, Future<AttributeRanking>> futures = new LinkedHashMap<>();
+            for (final String attributeName : attributeNames) {
+                if (isRankable(attributeName)) {
+                    futures.put(attributeName, executor.submit(new Callable<AttributeRanking>() {
+                        @Override
+                        public AttributeRanking call() {
+                            return new AttributeRanking(attributeName);
+                        }
+                    }));
+                }
+            }
+            for (Map.Entry<String, Future<AttributeRanking>> entry : futures.entrySet()) {
+                rankings.put(entry.getKey(), entry.getValue().get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error ranking attributes", e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public List<NetworkCharacter> getCharacters() {
+        return characters;
+    }
+
+    public Set<String> getAttributeNames() {
+        return rankings.keySet();
+    }
+
+    public boolean hasAttribute(String attributeName) {
+        return rankings.containsKey(attributeName);
+    }
+
+    public double getMax(String attributeName) {
+        return getRanking(attributeName).max;
+    }
+
+    public double getMin(String attributeName) {
+        return getRanking(attributeName).min;
+    }
+
+    /**
+     * Returns the cached numeric value of the attribute for the character.
+     * @param character
+     * @param attributeName
+     * @return
+     */
+    public double getValue(NetworkCharacter character, String attributeName) {
+        return getRanking(attributeName).values[indexOf(character)];
+    }
+
+    /**
+     * Returns the competition rank of the character, where the largest value has rank 1.
+     * @param character
+     * @param attributeName
+     * @return
+     */
+    public int getRank(NetworkCharacter character, String attributeName) {
+        return getRank(character, attributeName, false);
+    }
+
+    /**
+     * Returns the competition rank of the character. If reverse is true, the smallest value has rank 1.
+     * @param character
+     * @param attributeName
+     * @param reverse
+     * @return
+     */
+    public int getRank(NetworkCharacter character, String attributeName, boolean reverse) {
+        AttributeRanking ranking = getRanking(attributeName);
+        return (reverse ? ranking.reverseRanks : ranking.ranks)[indexOf(character)];
+    }
+
+    /**
+     * Returns the dense rank of the character. If reverse is true, the smallest value has rank 1.
+     * @param character
+     * @param attributeName
+     * @param reverse
+     * @return
+     */
+    public int getDenseRank(NetworkCharacter character, String attributeName, boolean reverse) {
+        AttributeRanking ranking = getRanking(attributeName);
+        return (reverse ? ranking.reverseDenseRanks : ranking.denseRanks)[indexOf(character)];
+    }
+
+    /**
+     * Returns the competition ranks of all characters as a map.
+     * @param attributeName
+     * @param reverse
+     * @return
+     */
+    public Map<NetworkCharacter, Integer> getRankMap(String attributeName, boolean reverse) {
+        AttributeRanking ranking = getRanking(attributeName);
+        int[] ranks = reverse ? ranking.reverseRanks : ranking.ranks;
+        Map<NetworkCharacter, Integer> rankMap = new HashMap<>();
+        for (int i = 0; i < ranks.length; i++) {
+            rankMap.put(characters.get(i), ranks[i]);
+        }
+        return rankMap;
+    }
+
+    private boolean isRankable(String attributeName) {
+        for (NetworkCharacter character : characters) {
+            if (!character.hasAttribute(attributeName)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private AttributeRanking getRanking(String attributeName) {
+        AttributeRanking ranking = rankings.get(attributeName);
+        if (ranking == null) {
+            throw new IllegalArgumentException(attributeName + " has not been ranked.");
+        }
+        return ranking;
+    }
+
+    private int indexOf(NetworkCharacter character) {
+        Integer index = indices.get(character);
+        if (index == null) {
+            throw new IllegalArgumentException(character.getId() + " is not in this ranking.");
+        }
+        return index;
+    }
+
+    /**
+     * The values, extremes and ranks of a single attribute, sorted once on construction.
+     */
+    private class AttributeRanking {
+        final double[] values;
+        final int[] ranks;
+        final int[] reverseRanks;
+        final int[] denseRanks;
+        final int[] reverseDenseRanks;
+        double max = 0.0;
+        double min = 0.0;
+
+        AttributeRanking(String attributeName) {
+            int n = characters.size();
+            values = new double[n];
+            ranks = new int[n];
+            reverseRanks = new int[n];
+            denseRanks = new int[n];
+            reverseDenseRanks = new int[n];
+
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = characters.get(i).getAttributeDouble(attributeName);
+                order[i] = i;
+                if (values[i] > max) {
+                    max = values[i];
+                }
+            }
+            // descending by value
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Double.compare(values[o2], values[o1]);
+                }
+            });
+            if (n > 0) {
+                min = values[order[n - 1]];
+            }
+
+            int rank = 0;
+            int dense = 0;
+            for (int i = 0; i < n; i++) {
+                if (i == 0 || values[order[i]] < values[order[i - 1]]) {
+                    rank = i + 1;
+                    dense++;
+                }
+                ranks[order[i]] = rank;
+                denseRanks[order[i]] = dense;
+            }
+            rank = 0;
+            dense = 0;
+            for (int i = n - 1; i >= 0; i--) {
+                if (i == n - 1 || values[order[i]] > values[order[i + 1]]) {
+                    rank = n - i;
+                    dense++;
+                }
+                reverseRanks[order[i]] = rank;
+                reverseDenseRanks[order[i]] = dense;
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package edu.macalester.mscs.centrality;
+
+import edu.macalester.mscs.utils.FileUtils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A centrality template that has been parsed once into static chunks and directive nodes.
+ *
+ * Every line starting with "%%%" is looked up in the directive registry by its first word
+ * (ie. "%%% degreeData" is the directive degreeData). Consecutive static lines are joined
+ * into a single chunk. Unknown directives are reported once, when the template is compiled,
+ * and are then treated as static lines.
+ *
+ * A compiled template is immutable and can be rendered any number of times, including
+ * concurrently, for different books and PageRank thresholds.
+ */
+public class CentralityTemplate {
+
+    public static final String DIRECTIVE_PREFIX = "%%%";
+
+    private final List<Node> nodes = new ArrayList<>();
+
+    public CentralityTemplate(List<String> templateLines, CentralityDirectives directives) {
+        StringBuilder chunk = new StringBuilder();
+        for (String line : templateLines) {
+            CentralityDirectives.Directive directive = null;
+            if (line.startsWith(DIRECTIVE_PREFIX)) {
+                String name = getDirectiveName(line);
+                directive = directives.get(name);
+                if (directive == null) {
+                    System.out.println("Unknown category: " + line);
+                }
+            }
+            if (directive == null) {
+                chunk.append(line).append('\n');
+            } else {
+                if (chunk.length() > 0) {
+                    nodes.add(new StaticNode(chunk.toString()));
+                    chunk = new StringBuilder();
+                }
+                nodes.add(new DirectiveNode(directive));
+            }
+        }
+        if (chunk.length() > 0) {
+            nodes.add(new StaticNode(chunk.toString()));
+        }
+    }
+
+    /**
+     * Compiles the template file with the default directives.
+     * @param templateFile
+     * @return
+     */
+    public static CentralityTemplate compile(String templateFile) {
+        return compile(templateFile, CentralityDirectives.defaults());
+    }
+
+    public static CentralityTemplate compile(String templateFile, CentralityDirectives directives) {
+        return new CentralityTemplate(FileUtils.readFile(templateFile), directives);
+    }
+
+    /**
+     * Renders the template for the table characters to the output file.
+     * @param tableChars
+     * @param ranking
+     * @param outputFile
+     */
+    public void render(Set<NetworkCharacter> tableChars, CentralityRanking ranking, String outputFile) {
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new FileWriter(outputFile));
+            render(tableChars, ranking, writer);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * Renders the template for the table characters to the writer, without closing it.
+     * @param tableChars
+     * @param ranking
+     * @param writer
+     * @throws IOException
+     */
+    public void render(Set<NetworkCharacter> tableChars, CentralityRanking ranking, Writer writer) throws IOException {
+        for (Node node : nodes) {
+            node.render(tableChars, ranking, writer);
+        }
+    }
+
+    private static String getDirectiveName(String line) {
+        String name = line.substring(DIRECTIVE_PREFIX.length()).trim();
+        int space = name.indexOf(' ');
+        return (space < 0) ? name : name.substring(0, space);
+    }
+
+    private interface Node {
+        void render(Set<NetworkCharacter> tableChars, CentralityRanking ranking, Writer writer) throws IOException;
+    }
+
+    private static class StaticNode implements Node {
+        private final String text;
+
+        StaticNode(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void render(Set<NetworkCharacter> tableChars, CentralityRanking ranking, Writer writer) throws IOException {
+            writer.write(text);
+        }
+    }
+
+    private static class DirectiveNode implements Node {
+        private final CentralityDirectives.Directive directive;
+
+        DirectiveNode(CentralityDirectives.Directive directive) {
+            this.directive = directive;
+        }
+
+        @Override
+        public void render(Set<NetworkCharacter> tableChars, CentralityRanking ranking, Writer writer) throws IOException {
+            directive.render(tableChars, ranking, writer);
+        }
+    }
+}
@@ -2,8 +2,8 @@ package edu.macalester.mscs.centrality;
 
 import edu.macalester.mscs.utils.FileUtils;
 
-import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Created by abeverid on 6/7/16.
@@ -19,17 +19,23 @@ public class CentraltyTableMaker {
     public static final String DEFAULT_OUTPUT_FILE_NAME = "src/main/resources/data/output/centrality2/GoT#NUM-06-07-centralities.tex";
 
 
-    public static final String RANK_LINE_TEMPLATE = "\\node at (#XVAL,#YVAL) { \\tiny \\mycircled[10]{#RANK}  };";
+    public static final String RANK_LINE_TEMPLATE = CentralityDirectives.RANK_LINE_TEMPLATE;
 
 
     private Set<NetworkCharacter> charSet = null;
 
+    private CentralityRanking ranking = null;
+
     private String dataFileName;
 
     private String outputFileName;
 
     private double minPageRank;
 
+    private int topCount = 0;
+
+    private String[] topAttributes = null;
+
 
     public CentraltyTableMaker(String bookNum, double minimumPageRank) {
         dataFileName = DEFAULT_DATA_FILE_NAME.replace("#NUM", bookNum);
@@ -37,14 +43,75 @@ public class CentraltyTableMaker {
         minPageRank = minimumPageRank;
     }
 
+    /**
+     * Creates a table maker that selects the union of the top characters by each of the attributes,
+     * (ie. the top 20 by PageRank or betweenness) instead of using a minimum PageRank.
+     * @param bookNum
+     * @param topCount
+     * @param topAttributes
+     */
+    public CentraltyTableMaker(String bookNum, int topCount, String... topAttributes) {
+        this(bookNum, 0.0);
+        this.topCount = topCount;
+        this.topAttributes = topAttributes;
+    }
+
     public static void main(String[] args) {
         String[] bookNums = {"1", "2", "3", "4", "5", "-all"};
         double[] minPageRanks = {0.013,0.01, 0.009, 0.009,0.0089,0.006};
 
-        for (int i=0; i < 1; i++) {
-            CentraltyTableMaker maker = new CentraltyTableMaker(bookNums[i], minPageRanks[i]);
+        createCentralityTables(bookNums, minPageRanks);
+    }
+
+    /**
+     * Creates the centrality tables for several books at once, one book per thread.
+     * @param bookNums
+     * @param minPageRanks
+     */
+    public static void createCentralityTables(String[] bookNums, double[] minPageRanks) {
+        List<CentraltyTableMaker> makers = new ArrayList<>();
+        for (int i = 0; i < bookNums.length; i++) {
+            makers.add(new CentraltyTableMaker(bookNums[i], minPageRanks[i]));
+        }
+        createCentralityTables(makers);
+    }
+
+    /**
+     * Creates the centrality tables for several books at once, one book per thread,
+     * using the union of the top characters by each of the attributes.
+     * @param bookNums
+     * @param topCount
+     * @param topAttributes
+     */
+    public static void createCentralityTables(String[] bookNums, int topCount, String... topAttributes) {
+        List<CentraltyTableMaker> makers = new ArrayList<>();
+        for (String bookNum : bookNums) {
+            makers.add(new CentraltyTableMaker(bookNum, topCount, topAttributes));
+        }
+        createCentralityTables(makers);
+    }
 
-            maker.createCentralityTable();
+    private static void createCentralityTables(List<CentraltyTableMaker> makers) {
+        final CentralityTemplate template = CentralityTemplate.compile(TEMPLATE_NAME);
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(makers.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (final CentraltyTableMaker maker : makers) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        maker.createCentralityTable(template);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error creating centrality tables", e);
+        } finally {
+            executor.shutdown();
         }
     }
 
@@ -60,90 +127,20 @@ public class CentraltyTableMaker {
 
 
     public void createCentralityTable() {
-        // load in the characters with high PageRank
-        Set<NetworkCharacter> charSet = getNetworkCharactersByPageRank(getMinPageRank());
-
-        DecimalFormat decimalFormat = new DecimalFormat("#.###");
-
+        createCentralityTable(CentralityTemplate.compile(TEMPLATE_NAME));
+    }
 
+    /**
+     * Creates the centrality table from an already compiled template,
+     * so that the template can be shared between books.
+     * @param template
+     */
+    public void createCentralityTable(CentralityTemplate template) {
+        // load in the characters with high PageRank
+        Set<NetworkCharacter> charSet = getTableCharacters();
 
         // create the file from the template
-        List<String> templateLines = FileUtils.readFile(TEMPLATE_NAME);
-        List<String> newLines = new ArrayList<String>();
-
-        for (String line : templateLines) {
-            if (! line.startsWith("%%%")) {
-                newLines.add(line);
-            } else if (line.startsWith("%%% yCoords")) {
-                newLines.add(getCoordinateLine(charSet));
-            } else if (line.startsWith("%%% degreeData")) {
-                for (NetworkCharacter character : charSet) {
-                    double maxDegree = getMaxDegree();
-                    double deg = character.getDegree() / maxDegree;
-                    newLines.add(deg + "\t" + character.getShortName());
-                }
-            } else if (line.startsWith("%%% degreeRanking")) {
-                newLines.addAll(getAttributeRankLines(NetworkCharacter.DEGREE, charSet));
-            } else if (line.startsWith("%%% degreeTick")) {
-                newLines.add("xticklabels={0,,,," + (int) getMaxDegree() + "},");
-            } else if (line.startsWith("%%% weightedDegreeData")) {
-                for (NetworkCharacter character : charSet) {
-                    double maxWeightedDegree = getMaxWeightedDegree();
-                    double weightDeg = character.getWeightedDegree() / maxWeightedDegree;
-                    newLines.add(weightDeg + "\t" + character.getShortName());
-                }
-            } else if (line.startsWith("%%% weightedDegreeRanking")) {
-                newLines.addAll(getAttributeRankLines(NetworkCharacter.WEIGHTED_DEGREE, charSet));
-            } else if (line.startsWith("%%% weightedDegreeTick")) {
-                newLines.add("xticklabels={0,,,," + (int) getMaxWeightedDegree() + "},");
-            } else if (line.startsWith("%%% eigenvectorData")) {
-                for (NetworkCharacter character : charSet) {
-                    double maxEig = getMaxEigenvector();
-                    double eig = character.getEigenvector() / maxEig;
-                    newLines.add(eig + "\t" + character.getShortName());
-                }
-            } else if (line.startsWith("%%% eigenvectorRanking")) {
-                newLines.addAll(getAttributeRankLines(NetworkCharacter.EIGENVECTOR_CENTRALITY, charSet));
-            } else if (line.startsWith("%%% eigenvectorTick")) {
-                newLines.add("xticklabels={0,,,," +  decimalFormat.format(getMaxEigenvector()) + "},");
-            } else if (line.startsWith("%%% pageRankData")) {
-                for (NetworkCharacter character : charSet) {
-                    double max = getMaxPageRank();
-                    double pr = character.getPageRank() / max;
-                    newLines.add(pr + "\t" + character.getShortName());
-                }
-            } else if (line.startsWith("%%% pageRankRanking")) {
-                newLines.addAll(getAttributeRankLines(NetworkCharacter.PAGE_RANK, charSet));
-            } else if (line.startsWith("%%% pageRankTick")) {
-                newLines.add("xticklabels={0,,,," +  decimalFormat.format(getMaxPageRank()) + "},");
-            } else if (line.startsWith("%%% closenessData")) {
-                for (NetworkCharacter character : charSet) {
-                    double max = getMaxCloseness();
-                    double pr = character.getCloseness() / max;
-                    newLines.add(pr + "\t" + character.getShortName());
-                }
-            } else if (line.startsWith("%%% closenessRanking")) {
-                newLines.addAll(getAttributeReverseRankLines(NetworkCharacter.CLOSENESS_CENTRALITY, charSet));
-            } else if (line.startsWith("%%% closenessTick")) {
-                newLines.add("xticklabels={0,,,," +  decimalFormat.format(getMaxCloseness()) + "},");
-            } else if (line.startsWith("%%% betweennessData")) {
-                for (NetworkCharacter character : charSet) {
-                    double max = getMaxBetweenness();
-                    double pr = character.getBetweenness() / max;
-                    newLines.add(pr + "\t" + character.getShortName());
-                }
-            } else if (line.startsWith("%%% betweennessRanking")) {
-                newLines.addAll(getAttributeRankLines(NetworkCharacter.BETWEENNESS_CENTRALITY, charSet));
-            } else if (line.startsWith("%%% betweennessTick")) {
-                newLines.add("xticklabels={0,,,," +  decimalFormat.format(getMaxBetweenness()) + "},");
-            } else {
-                System.out.println("Unknown category: " + line);
-                newLines.add(line);
-            }
-        }
-
-        FileUtils.writeFile(newLines, getOutputFileName());
-
+        template.render(charSet, getRanking(), getOutputFileName());
     }
 
 
@@ -169,6 +166,21 @@ public class CentraltyTableMaker {
         return charSet;
     }
 
+    /**
+     * Returns the characters to include in the table: the union of the top characters
+     * by each of the top attributes if a top count was given, or else the characters
+     * whose PageRank is at least the minimum PageRank.
+     * @return
+     */
+    private Set<NetworkCharacter> getTableCharacters() {
+        if (topCount > 0) {
+            System.out.println("Using top " + topCount + " by " + Arrays.toString(topAttributes)
+                    + " and total characters=" + getNetworkCharacters().size());
+            return TopCharacters.getTopUnion(getNetworkCharacters(), topCount, topAttributes);
+        }
+        return getNetworkCharactersByPageRank(getMinPageRank());
+    }
+
     /**
      * Returns the list of characters whose PageRank is at least minPageRank.
      * @param minPageRank
@@ -192,94 +204,17 @@ public class CentraltyTableMaker {
     }
 
 
-    private double getMax(String attributeName) {
-        double max = 0.0;
-
-        for (NetworkCharacter nc : getNetworkCharacters()) {
-            if (nc.getAttributeDouble(attributeName) > max) {
-                max = nc.getAttributeDouble(attributeName);
-            }
-        }
-
-        return max;
-
-    }
-
-
-    private double getMaxDegree() {
-        double degree = 0.0;
-
-        for (NetworkCharacter nc : getNetworkCharacters()) {
-            if (nc.getDegree() > degree) {
-                degree = nc.getDegree();
-            }
-        }
-
-        return degree;
-    }
-
-    private double getMaxWeightedDegree() {
-        double wd = 0.0;
-
-        for (NetworkCharacter nc : getNetworkCharacters()) {
-            if (nc.getWeightedDegree() > wd) {
-                wd = nc.getWeightedDegree();
-            }
-        }
-
-        return wd;
-    }
-
-    private double getMaxEigenvector() {
-        double eig = 0.0;
-
-        for (NetworkCharacter nc : getNetworkCharacters()) {
-            if (nc.getEigenvector() > eig) {
-                eig = nc.getEigenvector();
-            }
-        }
-
-        return eig;
-    }
-
-    private double getMaxPageRank() {
-        double max = 0.0;
-
-        for (NetworkCharacter nc : getNetworkCharacters()) {
-            if (nc.getPageRank() > max) {
-                max = nc.getPageRank();
-            }
-        }
-
-        return max;
-    }
-
-    private double getMaxCloseness() {
-        double max = 0.0;
-
-        for (NetworkCharacter nc : getNetworkCharacters()) {
-            if (nc.getCloseness() > max) {
-                max = nc.getCloseness();
-            }
-        }
-
-        return max;
-    }
-
-    private double getMaxBetweenness() {
-        double max = 0.0;
-
-        for (NetworkCharacter nc : getNetworkCharacters()) {
-            if (nc.getBetweenness() > max) {
-                max = nc.getBetweenness();
-            }
+    /**
+     * Returns the ranking of all characters, which is computed the first time it is needed.
+     * @return
+     */
+    private CentralityRanking getRanking() {
+        if (ranking == null) {
+            ranking = new CentralityRanking(getNetworkCharacters());
         }
-
-        return max;
+        return ranking;
     }
 
-
-
     public String getDataFileName() {
         return dataFileName;
     }
@@ -292,22 +227,13 @@ public class CentraltyTableMaker {
         return minPageRank;
     }
 
+    public int getTopCount() {
+        return topCount;
+    }
+
     public String getCoordinateLine(Set<NetworkCharacter> tableChars) {
 //        return "  symbolic y coords={ Robert, Stannis, Z, Cersei, Jaime, Joffrey, Tyrion, Tywin, Y, Arya, Bran, Catelyn, Jon, Robb, Sansa, X, Daenerys},";
-        StringBuffer sb = new StringBuffer();
-
-        sb.append("  symbolic y coords={ " );
-
-        for (NetworkCharacter nc : tableChars) {
-            sb.append(nc.getShortName() + ", ");
-        }
-
-        sb.deleteCharAt(sb.length()-1);
-        sb.append("},");
-
-
-        return sb.toString();
-
+        return CentralityDirectives.getCoordinateLine(tableChars);
     }
 
 
@@ -316,42 +242,7 @@ public class CentraltyTableMaker {
     }
 
     private Map<NetworkCharacter, Integer> getRankByAttribute(String attributeName, boolean reverse) {
-        List<NetworkCharacter> charList = new ArrayList(charSet);
-        Collections.sort(charList, new NetworkCharacterComparator(attributeName));
-
-        if (reverse) {
-            Collections.reverse(charList);
-        }
-
-        HashMap<NetworkCharacter, Integer> rankMap = new HashMap<>();
-
-        int currentRank = 0;
-        double currentValue = 0.0;
-
-        for (int i=0; i < charList.size(); i++) {
-            NetworkCharacter c = charList.get(i);
-
-            if (currentRank == 0) {
-                currentRank = 1;
-                currentValue = c.getAttributeDouble(attributeName);
-            } else if (reverse) {
-                if (c.getAttributeDouble(attributeName) > currentValue) {
-                    currentRank = i+1;
-                    currentValue = c.getAttributeDouble(attributeName);
-                }
-            } else {
-                if (c.getAttributeDouble(attributeName) < currentValue) {
-                    currentRank = i+1;
-                    currentValue = c.getAttributeDouble(attributeName);
-                }
-            }
-
-            rankMap.put(c, new Integer(currentRank));
-
-        }
-
-
-        return rankMap;
+        return getRanking().getRankMap(attributeName, reverse);
     }
 
 
@@ -368,43 +259,4 @@ public class CentraltyTableMaker {
             System.out.println("char=" + c.getId() + " ranking=" + map.get(c));
         }
     }
-
-    /**
-     * Creates the lines that adds the ranks (circled) for the attributes.
-     * @param attributeName
-     * @param charSet
-     * @return
-     */
-    private List<String> getAttributeRankLines(String attributeName, Set<NetworkCharacter> charSet) {
-        ArrayList<String> lines = new ArrayList<>();
-        double maxAttribute = getMax(attributeName);
-        double yval = charSet.size() * 0.5 - 0.05;
-        Map<NetworkCharacter, Integer> map = getRankByAttribute(attributeName);
-        for (NetworkCharacter character : charSet) {
-            double xval = character.getAttributeDouble(attributeName)/maxAttribute * 1.3 + .22;
-            lines.add(RANK_LINE_TEMPLATE.replace("#XVAL", Double.toString(xval)).
-                    replace("#YVAL", Double.toString(yval)).
-                    replace("#RANK", map.get(character).toString()));
-            yval = yval - 0.5;
-        }
-
-        return lines;
-    }
-
-
-    private List<String> getAttributeReverseRankLines(String attributeName, Set<NetworkCharacter> charSet) {
-        ArrayList<String> lines = new ArrayList<>();
-        double maxAttribute = getMax(attributeName);
-        double yval = charSet.size() * 0.5 - 0.05;
-        Map<NetworkCharacter, Integer> map = getRankByAttribute(attributeName, true);
-        for (NetworkCharacter character : charSet) {
-            double xval = character.getAttributeDouble(attributeName)/maxAttribute * 1.3 + .22;
-            lines.add(RANK_LINE_TEMPLATE.replace("#XVAL", Double.toString(xval)).
-                    replace("#YVAL", Double.toString(yval)).
-                    replace("#RANK", map.get(character).toString()));
-            yval = yval - 0.5;
-        }
-
-        return lines;
-    }
 }
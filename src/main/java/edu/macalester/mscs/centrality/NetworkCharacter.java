@@ -23,6 +23,14 @@ public class NetworkCharacter implements Comparable<NetworkCharacter> {
     public static final String CLUSTERING_COEFFICIENT = "Clustering Coefficient";
     public static final String EIGENVECTOR_CENTRALITY = "Eigenvector Centrality";
 
+    /**
+     * The numeric attributes that can be ranked
+     */
+    public static final String[] CENTRALITY_ATTRIBUTES = {
+            DEGREE, WEIGHTED_DEGREE, CLOSENESS_CENTRALITY, BETWEENNESS_CENTRALITY,
+            AUTHORITY, PAGE_RANK, CLUSTERING_COEFFICIENT, EIGENVECTOR_CENTRALITY
+    };
+
     private HashMap<String, String> map = new HashMap<>();
 
     /*
@@ -88,6 +96,10 @@ public class NetworkCharacter implements Comparable<NetworkCharacter> {
      }
 */
 
+    public boolean hasAttribute(String attributeName) {
+        return map.get(attributeName) != null;
+    }
+
     public String getAttribute(String attributeName) {
         return map.get(attributeName);
     }
@@ -1,11 +1,20 @@
 package edu.macalester.mscs.characters;
 
 import edu.macalester.mscs.utils.EntryComparator;
+import edu.macalester.mscs.utils.LineTokenizer;
 import edu.macalester.mscs.utils.Logger;
+import edu.macalester.mscs.utils.StringSpan;
 import edu.macalester.mscs.utils.WordUtils;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * CharacterFinder provides lots of different utility for generating a list of characters from a text.
@@ -47,6 +56,11 @@ import java.util.*;
  */
 public class CharacterFinder {
 
+    /**
+     * The number of lines per chunk when counting in parallel
+     */
+    public static final int PARALLEL_CHUNK_SIZE = 2000;
+
     private final Set<String> ignoredWords;
     private final Set<String> titleWords;
     private final Set<String> generalWords;
@@ -129,68 +143,377 @@ public class CharacterFinder {
      * @param lines
      */
     public void countCapitalized(List<String> lines) {
+        // count into mutable holders, so that existing keys are updated without allocating
+        final Map<String, int[]> counts = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : counter.entrySet()) {
+            counts.put(entry.getKey(), new int[] {entry.getValue()});
+        }
+        Tally tally = new Tally() {
+            @Override
+            public boolean contains(StringSpan word, int lineIndex) {
+                return counts.containsKey(word);
+            }
+
+            @Override
+            public void increment(StringSpan word, int increment, int lineIndex) {
+                addCount(counts, word, increment);
+            }
+
+            @Override
+            public void missed(StringSpan word) {}
+        };
+        LineTokenizer tokens = new LineTokenizer();
         for (String line : lines) {
-            List<String> parts = breakLine(line);
-            StringBuilder phrase = null;
-            String toAdd = null;
-            // find capitals that don't start sentences
-            for (int i = 0; i < parts.size(); i++) {
-                String part = parts.get(i);
-                if (i > 0 && (isGeneralWord(part) || !WordUtils.precedesSentenceStart(parts.get(i - 1), punctuation))) {
-                    if (WordUtils.isCapitalized(part) && !isIgnoredWord(part)) {
-                        if (!isGeneralWord(part)) {
-                            incrementWord(part, 0);
+            tokens.reset(line);
+            countFirstPass(tokens, tally, 0);
+            countSecondPass(tokens, tally, 0);
+        }
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            counter.put(entry.getKey(), entry.getValue()[0]);
+        }
+    }
+
+    /**
+     * Builds up the counter from lines of a text, processing chunks of lines in parallel.
+     * The resulting counter is identical to the one built by countCapitalized.
+     *
+     * @param lines
+     */
+    public void countCapitalizedParallel(List<String> lines) {
+        List<List<String>> chunks = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i += PARALLEL_CHUNK_SIZE) {
+            chunks.add(lines.subList(i, Math.min(lines.size(), i + PARALLEL_CHUNK_SIZE)));
+        }
+        countCapitalizedParallel(chunks.iterator());
+    }
+
+    /**
+     * Builds up the counter from a text file, reading it in chunks of lines that are
+     * processed in parallel as they are read. Lines are trimmed, as in FileUtils.readFile.
+     * The resulting counter is identical to the one built by countCapitalized.
+     *
+     * @param file
+     */
+    public void countCapitalizedParallel(String file) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            final BufferedReader chunkReader = reader;
+            countCapitalizedParallel(new Iterator<List<String>>() {
+                private List<String> next = readChunk();
+
+                @Override
+                public boolean hasNext() {
+                    return !next.isEmpty();
+                }
+
+                @Override
+                public List<String> next() {
+                    List<String> chunk = next;
+                    next = readChunk();
+                    return chunk;
+                }
+
+                private List<String> readChunk() {
+                    List<String> chunk = new ArrayList<>();
+                    try {
+                        String line;
+                        while (chunk.size() < PARALLEL_CHUNK_SIZE && (line = chunkReader.readLine()) != null) {
+                            chunk.add(line.trim());
                         }
-                        if (phrase == null) {
-                            phrase = new StringBuilder(part);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return chunk;
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * The first pass of every chunk runs in parallel as chunks arrive, since it does not depend on the counter.
+     * The second pass only counts sentence starters that are already in the counter, so it needs to know
+     * when each key first appeared. The first line of every key in the first pass is merged, and then the
+     * second pass of every chunk runs in parallel. The second pass can also introduce keys of its own
+     * (in practice only phrases, which are never looked up), so as a safeguard a chunk is rerun if it
+     * skipped a sentence starter that an earlier chunk's second pass introduced.
+     */
+    private void countCapitalizedParallel(Iterator<List<String>> chunkIterator) {
+        final Set<String> existing = new HashSet<>(counter.keySet());
+        final Map<String, Integer> firstLines = new HashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<CountChunk> chunks = new ArrayList<>();
+            List<Future<?>> futures = new ArrayList<>();
+            int offset = 0;
+            while (chunkIterator.hasNext()) {
+                final CountChunk chunk = new CountChunk(chunkIterator.next(), offset, existing, firstLines);
+                offset += chunk.lines.size();
+                chunks.add(chunk);
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        chunk.countFirst();
+                    }
+                }));
+            }
+            waitFor(futures);
+            for (CountChunk chunk : chunks) {
+                for (String word : chunk.firstLines.keySet()) {
+                    if (!firstLines.containsKey(word)) {
+                        firstLines.put(word, chunk.firstLines.get(word));
+                    }
+                }
+            }
+
+            futures.clear();
+            for (final CountChunk chunk : chunks) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        chunk.countSecond(Collections.<String>emptySet());
+                    }
+                }));
+            }
+            waitFor(futures);
+
+            Set<String> introduced = new HashSet<>();
+            for (CountChunk chunk : chunks) {
+                if (!Collections.disjoint(chunk.missed, introduced)) {
+                    chunk.countSecond(introduced);
+                }
+                introduced.addAll(chunk.introduced);
+                for (Map.Entry<String, int[]> entry : chunk.counts.entrySet()) {
+                    incrementWord(entry.getKey(), entry.getValue()[0]);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void waitFor(List<Future<?>> futures) {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error counting capitalized words", e);
+        }
+    }
+
+    /**
+     * Finds capitals that don't start sentences
+     *
+     * A phrase is always a contiguous run of spans, so it is tracked by its start and end
+     * in the line, and only becomes a String if it is new to the counter.
+     */
+    private void countFirstPass(LineTokenizer tokens, FirstPassTally tally, int lineIndex) {
+        StringSpan span = new StringSpan();
+        String line = tokens.getLine();
+        int phraseStart = -1;
+        int phraseEnd = -1;
+        int toAddEnd = -1;
+        for (int i = 0; i < tokens.size(); i++) {
+            tokens.span(i, span);
+            if (i > 0 && (isGeneralWord(span) || !tokens.containsAny(i - 1, punctuation))) {
+                if (tokens.isCapitalized(i) && !isIgnoredWord(span)) {
+                    if (!isGeneralWord(span)) {
+                        tally.increment(span, 0, lineIndex);
+                    }
+                    if (phraseStart < 0) {
+                        phraseStart = tokens.start(i);
+                    }
+                    phraseEnd = tokens.end(i);
+                    toAddEnd = phraseEnd;
+                } else {
+                    if (phraseStart >= 0) {
+                        // ignore phrases that start with "One of"
+                        if ((tokens.equals(i, " ") || tokens.equals(i, "of") || tokens.equals(i, "the") || containsSpan(fillerWords, span))
+                                && !(tokens.equals(i, "of") && (isPhrase(line, phraseStart, phraseEnd, "One ") || isPhrase(line, phraseStart, phraseEnd, "Two ")))) {
+                            phraseEnd = tokens.end(i);
                         } else {
-                            phrase.append(part);
-                        }
-                        toAdd = phrase.toString();
-                    } else {
-                        if (phrase != null) {
-                            // ignore phrases that start with "One of"
-                            if ((part.equals(" ") || part.equals("of") || part.equals("the") || fillerWords.contains(part))
-                                    && !(part.equals("of") && (phrase.toString().equals("One ") || phrase.toString().equals("Two ")))) {
-                                phrase.append(part);
-                            } else {
-                                if (!isGeneralWord(toAdd)) {
-                                    incrementWord(toAdd, 1);
-                                }
-                                phrase = null;
+                            span.set(line, phraseStart, toAddEnd);
+                            if (!isGeneralWord(span)) {
+                                tally.increment(span, 1, lineIndex);
                             }
+                            phraseStart = -1;
                         }
                     }
                 }
             }
-            // go back and get sentence starters that we've already seen
-            phrase = null;
-            for (int i = 0; i < parts.size(); i++) {
-                String part = parts.get(i);
-                if (phrase != null || counter.containsKey(part) && (i == 0 || WordUtils.precedesSentenceStart(parts.get(i - 1), punctuation))) {
-                    if (part.length() > 1 && WordUtils.isCapitalized(part) && !isIgnoredWord(part)) {
-                        if (!isGeneralWord(part)) {
-                            incrementWord(part, 0);
-                        }
-                        if (phrase == null) {
-                            phrase = new StringBuilder(part);
-                        } else {
-                            phrase.append(part);
-                        }
-                        toAdd = phrase.toString();
-                    } else {
-                        if (phrase != null) {
-                            if (part.equals(" ") || part.equals("of") || part.equals("the") || fillerWords.contains(part)) {
-                                phrase.append(part);
-                            } else {
-                                if (!isGeneralWord(toAdd)) {
-                                    incrementWord(toAdd, 1);
-                                }
-                                phrase = null;
+        }
+    }
+
+    /**
+     * Goes back and gets sentence starters that we've already seen
+     */
+    private void countSecondPass(LineTokenizer tokens, Tally tally, int lineIndex) {
+        StringSpan span = new StringSpan();
+        String line = tokens.getLine();
+        int phraseStart = -1;
+        int toAddEnd = -1;
+        for (int i = 0; i < tokens.size(); i++) {
+            tokens.span(i, span);
+            boolean sentenceStart = i == 0 || tokens.containsAny(i - 1, punctuation);
+            if (phraseStart >= 0 || sentenceStart && tally.contains(span, lineIndex)) {
+                if (tokens.length(i) > 1 && tokens.isCapitalized(i) && !isIgnoredWord(span)) {
+                    if (!isGeneralWord(span)) {
+                        tally.increment(span, 0, lineIndex);
+                    }
+                    if (phraseStart < 0) {
+                        phraseStart = tokens.start(i);
+                    }
+                    toAddEnd = tokens.end(i);
+                } else {
+                    if (phraseStart >= 0) {
+                        if (!(tokens.equals(i, " ") || tokens.equals(i, "of") || tokens.equals(i, "the") || containsSpan(fillerWords, span))) {
+                            span.set(line, phraseStart, toAddEnd);
+                            if (!isGeneralWord(span)) {
+                                tally.increment(span, 1, lineIndex);
                             }
+                            phraseStart = -1;
                         }
                     }
                 }
+            } else if (sentenceStart && tokens.length(i) > 1 && tokens.isCapitalized(i) && !isIgnoredWord(span)) {
+                tally.missed(span);
+            }
+        }
+    }
+
+    private static boolean isPhrase(String line, int phraseStart, int phraseEnd, String phrase) {
+        return phraseEnd - phraseStart == phrase.length() && line.startsWith(phrase, phraseStart);
+    }
+
+    /**
+     * Adds to the count of the word, only creating a String key if the word is new
+     */
+    private static void addCount(Map<String, int[]> counts, StringSpan word, int increment) {
+        int[] count = counts.get(word);
+        if (count == null) {
+            counts.put(word.toString(), new int[] {increment});
+        } else {
+            count[0] += increment;
+        }
+    }
+
+    /**
+     * The counter operations used by the first counting pass, which never looks words up.
+     * The word spans are only valid for the duration of the call.
+     */
+    private interface FirstPassTally {
+        void increment(StringSpan word, int increment, int lineIndex);
+
+        /**
+         * Called when a sentence starter is skipped because it is not in the counter
+         */
+        void missed(StringSpan word);
+    }
+
+    /**
+     * The counter operations used by the second counting pass, which also looks words up
+     */
+    private interface Tally extends FirstPassTally {
+        /**
+         * Returns true if the word is in the counter as of the given line
+         */
+        boolean contains(StringSpan word, int lineIndex);
+    }
+
+    /**
+     * A chunk of consecutive lines, counted into its own map.
+     * The values are mutable int holders, so counting does not box.
+     */
+    private class CountChunk {
+        final List<String> lines;
+        final int offset;
+        final Set<String> existing;
+        final Map<String, Integer> globalFirstLines;
+        final Map<String, Integer> firstLines = new HashMap<>();
+        final Map<String, int[]> counts = new HashMap<>();
+        final Set<String> introduced = new HashSet<>();
+        final Set<String> missed = new HashSet<>();
+        private Map<String, int[]> firstCounts;
+
+        CountChunk(List<String> lines, int offset, Set<String> existing, Map<String, Integer> globalFirstLines) {
+            this.lines = lines;
+            this.offset = offset;
+            this.existing = existing;
+            this.globalFirstLines = globalFirstLines;
+        }
+
+        void countFirst() {
+            FirstPassTally tally = new FirstPassTally() {
+                @Override
+                public void increment(StringSpan word, int increment, int lineIndex) {
+                    addCount(counts, word, increment);
+                    if (!firstLines.containsKey(word)) {
+                        firstLines.put(word.toString(), lineIndex);
+                    }
+                }
+
+                @Override
+                public void missed(StringSpan word) {}
+            };
+            LineTokenizer tokens = new LineTokenizer();
+            for (int i = 0; i < lines.size(); i++) {
+                countFirstPass(tokens.reset(lines.get(i)), tally, offset + i);
+            }
+            firstCounts = new HashMap<>();
+            for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+                firstCounts.put(entry.getKey(), entry.getValue().clone());
+            }
+        }
+
+        /**
+         * Runs the second pass, treating the words in known as already counted
+         * @param known
+         */
+        void countSecond(final Set<String> known) {
+            // restart from the first pass counts, in case this is a rerun
+            counts.clear();
+            for (Map.Entry<String, int[]> entry : firstCounts.entrySet()) {
+                counts.put(entry.getKey(), entry.getValue().clone());
+            }
+            introduced.clear();
+            missed.clear();
+            Tally tally = new Tally() {
+                @Override
+                public boolean contains(StringSpan word, int lineIndex) {
+                    if (existing.contains(word) || introduced.contains(word) || !known.isEmpty() && containsSpan(known, word)) {
+                        return true;
+                    }
+                    Integer firstLine = globalFirstLines.get(word);
+                    return firstLine != null && firstLine <= lineIndex;
+                }
+
+                @Override
+                public void increment(StringSpan word, int increment, int lineIndex) {
+                    if (!contains(word, lineIndex)) {
+                        introduced.add(word.toString());
+                    }
+                    addCount(counts, word, increment);
+                }
+
+                @Override
+                public void missed(StringSpan word) {
+                    if (!missed.contains(word)) {
+                        missed.add(word.toString());
+                    }
+                }
+            };
+            LineTokenizer tokens = new LineTokenizer();
+            for (int i = 0; i < lines.size(); i++) {
+                countSecondPass(tokens.reset(lines.get(i)), tally, offset + i);
             }
         }
     }
@@ -343,11 +666,27 @@ public class CharacterFinder {
      * should be done prior to calling this method, and removing must be done after.
      */
     public void processCapitalized() {
-        findTitledNames();
-        findPluralized();
-        findSurnames();
-        findNames();
-        findPlaces();
+        Map<String, Phrase> phrases = new HashMap<>();
+        addPhrases(phrases, counter.keySet());
+        findTitledNames(phrases.values());
+        addPhrases(phrases, titledNames);
+        findPluralized(phrases.values());
+        findSurnames(phrases.values());
+        findNames(phrases.values());
+        addPhrases(phrases, names);
+        findPlaces(phrases.values());
+    }
+
+    /**
+     * Adds every word to the phrase table that is not already in it.
+     * The finders below add names to the counter, so they are added here too.
+     */
+    private void addPhrases(Map<String, Phrase> phrases, Collection<String> words) {
+        for (String word : words) {
+            if (!phrases.containsKey(word)) {
+                phrases.put(word, new Phrase(word));
+            }
+        }
     }
 
     /**
@@ -355,47 +694,48 @@ public class CharacterFinder {
      *
      * @return
      */
-    private void findTitledNames() {
-        Set<String> words = counter.keySet();
+    private void findTitledNames(Collection<Phrase> phrases) {
         Set<String> partNames = new HashSet<>();
-        for (String cap : words) {
-            String[] split = cap.split(" ");
-            String name = StringUtils.substringAfter(cap, " ");
+        for (Phrase phrase : phrases) {
+            String[] split = phrase.words;
             if (split.length > 1 && isTitleWord(split[0]) && WordUtils.isCapitalized(split[1]) && !isGeneralWord(split[1])) {
                 if (split.length == 3) {
-                    titledNames.add(name);
+                    titledNames.add(phrase.name);
                 } else {
                     partNames.add(split[1]);
                 }
             }
         }
-        for (String name : partNames) {
-            boolean isUnique = true;
-            for (String cap : words) {
-                // cut off after "of" and "the" because anything preceding is either still unique, or inherently not unique
-                cap = StringUtils.substringBefore(cap, " of ");
-                cap = StringUtils.substringBefore(cap, " the ");
-                String[] split = cap.split(" ");
-                if (split.length == 2) {
-                    // not unique if first in a pair, or if second in a pair and not preceded by a general word
-                    if (name.equals(split[0]) || (!isGeneralWord(split[0]) && name.equals(split[1]))) {
-                        isUnique = false;
-                    }
+        // index every phrase once, instead of rescanning the counter for every part name
+        // cut off after "of" and "the" because anything preceding is either still unique, or inherently not unique
+        Set<String> pairFirsts = new HashSet<>();
+        Set<String> pairSeconds = new HashSet<>();
+        Set<String> phraseWords = new HashSet<>();
+        Map<String, List<String>> namedPairs = new HashMap<>();
+        for (Phrase phrase : phrases) {
+            String[] split = phrase.pairWords;
+            if (split.length == 2) {
+                // not unique if first in a pair, or if second in a pair and not preceded by a general word
+                pairFirsts.add(split[0]);
+                if (!isGeneralWord(split[0])) {
+                    pairSeconds.add(split[1]);
                     // if something contains name and another non-general word, it's a name
-                    if (!isGeneralWord(split[0]) && !isGeneralWord(split[1])
-                            && (name.equals(split[0]) || name.equals(split[1]))) {
-                        titledNames.add(cap);
-                    }
-                } else if (split.length > 2) {
-                    for (String s : split) {
-                        // if it comes up as part of anything else, or pluralized, its not unique
-                        if (name.equals(s) || name.equals(s + "s")) {
-                            isUnique = false;
-                        }
+                    if (!isGeneralWord(split[1])) {
+                        addPair(namedPairs, split[0], phrase.pair);
+                        addPair(namedPairs, split[1], phrase.pair);
                     }
                 }
+            } else if (split.length > 2) {
+                // if it comes up as part of anything else, or pluralized, its not unique
+                phraseWords.addAll(Arrays.asList(split));
             }
-            if (isUnique) {
+        }
+        for (String name : partNames) {
+            boolean isPlural = name.endsWith("s") && phraseWords.contains(name.substring(0, name.length() - 1));
+            if (namedPairs.containsKey(name)) {
+                titledNames.addAll(namedPairs.get(name));
+            }
+            if (!pairFirsts.contains(name) && !pairSeconds.contains(name) && !phraseWords.contains(name) && !isPlural) {
                 titledNames.add(name);
             }
         }
@@ -405,20 +745,26 @@ public class CharacterFinder {
         names.addAll(titledNames);
     }
 
+    private static void addPair(Map<String, List<String>> namedPairs, String word, String pair) {
+        if (!namedPairs.containsKey(word)) {
+            namedPairs.put(word, new ArrayList<String>());
+        }
+        namedPairs.get(word).add(pair);
+    }
+
     /**
      * Finds words that exist in words and phrases as both "****" and "****s" and at least once do not follow "the"
      * Ignores words found in generalWords
      *
      * @return
      */
-    private void findPluralized() {
-        Set<String> words = counter.keySet();
-        for (String cap : words) {
-            String[] split = cap.split(" ");
+    private void findPluralized(Collection<Phrase> phrases) {
+        for (Phrase phrase : phrases) {
+            String[] split = phrase.words;
             for (int i = 1; i < split.length; i++) {
                 String s = split[i];
                 if (!isGeneralWord(s) && !split[i - 1].equalsIgnoreCase("the")
-                        && words.contains(s) && words.contains(s + "s")) {
+                        && counter.containsKey(s) && counter.containsKey(s + "s")) {
                     pluralized.add(s);
                 }
             }
@@ -433,15 +779,13 @@ public class CharacterFinder {
      *
      * @return
      */
-    private void findSurnames() {
+    private void findSurnames(Collection<Phrase> phrases) {
         if (surnames == null) {
             surnames = new HashSet<>();
         }
-        Set<String> words = counter.keySet();
         Set<String> once = new HashSet<>();
-        for (String cap : words) {
-            String name = stripTitle(stripPlace(cap));
-            String[] split = name.split(" ");
+        for (Phrase phrase : phrases) {
+            String[] split = phrase.surnameWords;
             if (!isGeneralWord(split[0])) {
                 if (split.length == 2 && !isGeneralWord(split[1])) {
                     if (once.contains(split[1])) {
@@ -460,23 +804,35 @@ public class CharacterFinder {
 
     /**
      * Returns phrases that follow "of" or "of the" in the capitalized phrases
+     * Ignores places that occur anywhere within a name
      *
      * @return
      */
-    private void findPlaces() {
-        Set<String> words = counter.keySet();
-        String ignoreString = names.toString();
-        for (String cap : words) {
-            if (cap.contains(" of ")) {
-                String place = StringUtils.substringAfter(cap, " of ");
-                if (place.startsWith("the")) {
-                    place = place.substring(4);
-                }
-                if (!ignoreString.contains(stripTitle(place))) {
-                    places.add(place);
+    private void findPlaces(Collection<Phrase> phrases) {
+        List<String> candidates = new ArrayList<>();
+        int maxLength = 0;
+        for (Phrase phrase : phrases) {
+            if (phrase.place != null) {
+                String candidate = stripTitle(phrase.place);
+                candidates.add(candidate);
+                maxLength = Math.max(maxLength, candidate.length());
+            }
+        }
+        // every substring of a name, up to the longest candidate, so that each check is one lookup
+        Set<String> nameParts = new HashSet<>();
+        for (String name : names) {
+            for (int i = 0; i <= name.length(); i++) {
+                for (int j = i; j <= Math.min(name.length(), i + maxLength); j++) {
+                    nameParts.add(name.substring(i, j));
                 }
             }
         }
+        int i = 0;
+        for (Phrase phrase : phrases) {
+            if (phrase.place != null && !nameParts.contains(candidates.get(i++))) {
+                places.add(phrase.place);
+            }
+        }
         nondescriptors.addAll(places);
     }
 
@@ -487,14 +843,12 @@ public class CharacterFinder {
      *
      * @return
      */
-    private void findNames() {
-        Set<String> words = counter.keySet();
-        for (String cap : words) {
-            String name = stripTitle(cap);
-            String[] split = name.split(" ");
+    private void findNames(Collection<Phrase> phrases) {
+        for (Phrase phrase : phrases) {
+            String[] split = phrase.nameWords;
             if (!isGeneralWord(split[0]) && (split.length == 2 && surnames.contains(split[1])
                     || split.length == 3 && fillerWords.contains(split[1]) && surnames.contains(split[2]))) {
-                names.add(name);
+                names.add(phrase.name);
             }
         }
         for (String name : names) {
@@ -502,6 +856,57 @@ public class CharacterFinder {
         }
     }
 
+    /**
+     * A counter key split into words once, along with the variants of it that the finders look at
+     */
+    private class Phrase {
+        final String[] words;
+        /**
+         * The phrase without a leading title, as in stripTitle
+         */
+        final String name;
+        final String[] nameWords;
+        /**
+         * The words of the phrase without a trailing place or a leading title
+         */
+        final String[] surnameWords;
+        /**
+         * The phrase cut off before "of" and "the"
+         */
+        final String pair;
+        final String[] pairWords;
+        /**
+         * The phrase after "of" or "of the", or null if there is no "of"
+         */
+        final String place;
+
+        Phrase(String text) {
+            words = text.split(" ");
+            if (hasTitle(words)) {
+                name = StringUtils.substringAfter(text, " ");
+                nameWords = Arrays.copyOfRange(words, 1, words.length);
+            } else {
+                name = text;
+                nameWords = words;
+            }
+            String noPlace = stripPlace(text);
+            if (noPlace.equals(text)) {
+                surnameWords = nameWords;
+            } else {
+                String[] split = noPlace.split(" ");
+                surnameWords = hasTitle(split) ? Arrays.copyOfRange(split, 1, split.length) : split;
+            }
+            pair = StringUtils.substringBefore(StringUtils.substringBefore(text, " of "), " the ");
+            pairWords = pair.equals(text) ? words : pair.split(" ");
+            if (text.contains(" of ")) {
+                String after = StringUtils.substringAfter(text, " of ");
+                place = after.startsWith("the") ? after.substring(4) : after;
+            } else {
+                place = null;
+            }
+        }
+    }
+
     /**
      * Builds the internal CharacterGroups data structure
      * The nondescriptors set is passed to the CharacterGroups as nondescriptors
@@ -518,6 +923,10 @@ public class CharacterFinder {
         return ignoredWords.contains(part);
     }
 
+    private boolean isIgnoredWord(StringSpan part) {
+        return containsSpan(ignoredWords, part);
+    }
+
     private boolean isTitleWord(String s) {
         return titleWords.contains(s);
     }
@@ -526,6 +935,17 @@ public class CharacterFinder {
         return isTitleWord(s) || generalWords.contains(s);
     }
 
+    private boolean isGeneralWord(StringSpan s) {
+        return containsSpan(titleWords, s) || containsSpan(generalWords, s);
+    }
+
+    /**
+     * Only hashed sets can be probed with a span, so any other set gets a String
+     */
+    private static boolean containsSpan(Set<String> set, StringSpan span) {
+        return (set instanceof HashSet) ? set.contains(span) : set.contains(span.toString());
+    }
+
     /**
      * If the phrase ends with "of...", that chunk gets removed.
      * Otherwise returns name.
@@ -550,8 +970,7 @@ public class CharacterFinder {
      * @return
      */
     private String stripTitle(String name) {
-        String[] split = name.split(" ");
-        if (split.length > 1 && isGeneralWord(split[0]) && WordUtils.isCapitalized(split[1])) {
+        if (hasTitle(name.split(" "))) {
             return StringUtils.substringAfter(name, " ");
         } else {
             return name;
@@ -559,47 +978,14 @@ public class CharacterFinder {
     }
 
     /**
-     * Breaks a line of text into chunks
-     * Each chunk is either a contiguous sequence of alphabetic characters, or
-     * a filler sequence of non-alphabetic characters
-     * Every character in the line occurs in the output (as distinct from
-     * String.split, which removes instances of the splitting character)
-     * @param line
+     * Returns true if the first of the words is a title (in generalWords) followed by a capitalized word
+     *
+     * @param split
      * @return
      */
-    private static List<String> breakLine(String line) {
-        List<String> pieces = new ArrayList<>();
-        StringBuilder sb = null;
-        boolean letters = true;
-        for (int i = 0; i < line.length(); i++) {
-            char c = line.charAt(i);
-            if (WordUtils.isWordCharacter(c)) {
-                if (sb == null) {
-                    sb = new StringBuilder();
-                }
-                if (letters) {
-                    sb.append(c);
-                } else {
-                    pieces.add(sb.toString());
-                    letters = true;
-                    sb = new StringBuilder("" + c);
-                }
-            } else {
-                if (sb != null) { // ignore leading punctuation
-                    if (!letters) {
-                        sb.append(c);
-                    } else {
-                        pieces.add(sb.toString());
-                        letters = false;
-                        sb = new StringBuilder("" + c);
-                    }
-                }
-            }
-        }
-        if (sb != null) {
-            pieces.add(sb.toString());
-        }
-        return pieces;
+    private boolean hasTitle(String[] split) {
+        return split.length > 1 && isGeneralWord(split[0]) && WordUtils.isCapitalized(split[1]);
     }
 
+
 }
@@ -7,17 +7,32 @@ import edu.macalester.mscs.utils.WordUtils;
 import java.util.*;
 
 /**
+ * Groups of aliases that refer to the same character.
+ *
+ * The groups are kept in a disjoint-set forest over integer alias ids, with union by rank
+ * and path compression, so adding aliases and combining groups is nearly constant time.
+ * The primary alias of a group is tracked separately from the root of its tree: combining
+ * groups keeps the primary alias of the first group. The sets of aliases in each group are
+ * only built when they are asked for, and are rebuilt after the groups change.
+ *
  * @author Ari Weiland
  */
 public class CharacterGroups {
 
-    private final Map<String, Set<String>> groups;
-    private final Map<String, String> redirects;
+    private final Map<String, Integer> ids;
+    private final List<String> aliases;
+    private int[] parents;
+    private int[] ranks;
+    private int[] primaries;
     private final Map<String, Integer> counter;
+    private Map<Integer, Set<String>> groups = null;
 
     public CharacterGroups() {
-        this.groups = new HashMap<>();
-        this.redirects = new HashMap<>();
+        this.ids = new HashMap<>();
+        this.aliases = new ArrayList<>();
+        this.parents = new int[16];
+        this.ranks = new int[16];
+        this.primaries = new int[16];
         this.counter = new HashMap<>();
     }
 
@@ -57,16 +72,22 @@ public class CharacterGroups {
 
     public void addAlias(String alias, int count) {
         if (!isAlias(alias)) {
-            Set<String> aliases = new HashSet<>();
-            aliases.add(alias);
-            groups.put(alias, aliases);
+            newAlias(alias);
         }
         counter.put(alias, count);
     }
 
+    /**
+     * Adds the alias to the group, combining the groups if the alias already has one
+     *
+     * @param group
+     * @param alias
+     * @param count
+     */
     public void addAliasToGroup(String group, String alias, int count) {
-        getGroup(group).add(alias);
-        redirects.put(alias, getPrimaryAlias(group));
+        int id = getId(group);
+        int aliasId = isAlias(alias) ? ids.get(alias) : newAlias(alias);
+        union(id, aliasId);
         counter.put(alias, count);
     }
 
@@ -75,51 +96,139 @@ public class CharacterGroups {
     }
 
     public void combineGroups(Collection<String> groups) {
-        String first = null;
+        int first = -1;
         for (String group : groups) {
-            if (!isAlias(group)) {
-                throw new IllegalArgumentException(group + " is not an alias in these groups.");
-            }
-            if (first == null) {
-                first = group;
+            int id = getId(group);
+            if (first < 0) {
+                first = id;
             } else {
-                String group1 = getPrimaryAlias(first);
-                String group2 = getPrimaryAlias(group);
-                if (!group1.equals(group2)) {
-                    getGroup(group1).addAll(this.groups.remove(group2));
-                    redirects.put(group2, group1);
-                }
+                union(first, id);
             }
         }
     }
 
     public boolean isAlias(String alias) {
-        return groups.containsKey(alias) || redirects.containsKey(alias);
+        return ids.containsKey(alias);
     }
 
     public String getPrimaryAlias(String alias) {
-        while (redirects.containsKey(alias)) {
-            alias = redirects.get(alias);
+        if (!isAlias(alias)) {
+            return alias;
         }
-        return alias;
+        return aliases.get(primaries[find(ids.get(alias))]);
     }
 
+    /**
+     * Returns the aliases in the same group as alias, or null if it is not an alias
+     *
+     * @param alias
+     * @return
+     */
     public Set<String> getGroup(String alias) {
-        return groups.get(getPrimaryAlias(alias));
+        if (!isAlias(alias)) {
+            return null;
+        }
+        return getGroupsByRoot().get(find(ids.get(alias)));
     }
 
     public Set<String> getPrimaryAliases() {
-        return groups.keySet();
+        Set<String> primaryAliases = new HashSet<>();
+        for (int root : getGroupsByRoot().keySet()) {
+            primaryAliases.add(aliases.get(primaries[root]));
+        }
+        return primaryAliases;
     }
 
     public Map<Set<String>, Integer> getGroups() {
         Map<Set<String>, Integer> map = new HashMap<>();
-        for (String s : groups.keySet()) {
-            map.put(getGroup(s), getAliasCount(s));
+        for (Set<String> group : getGroupsByRoot().values()) {
+            map.put(group, getAliasCount(group));
         }
         return map;
     }
 
+    private int getId(String alias) {
+        Integer id = ids.get(alias);
+        if (id == null) {
+            throw new IllegalArgumentException(alias + " is not an alias in these groups.");
+        }
+        return id;
+    }
+
+    private int newAlias(String alias) {
+        int id = aliases.size();
+        if (id == parents.length) {
+            parents = Arrays.copyOf(parents, id * 2);
+            ranks = Arrays.copyOf(ranks, id * 2);
+            primaries = Arrays.copyOf(primaries, id * 2);
+        }
+        aliases.add(alias);
+        ids.put(alias, id);
+        parents[id] = id;
+        primaries[id] = id;
+        groups = null;
+        return id;
+    }
+
+    private int find(int id) {
+        int root = id;
+        while (parents[root] != root) {
+            root = parents[root];
+        }
+        // path compression
+        while (parents[id] != root) {
+            int next = parents[id];
+            parents[id] = root;
+            id = next;
+        }
+        return root;
+    }
+
+    /**
+     * Combines the groups of the two ids, keeping the primary alias of the first
+     */
+    private void union(int id1, int id2) {
+        int root1 = find(id1);
+        int root2 = find(id2);
+        if (root1 != root2) {
+            int primary = primaries[root1];
+            int root;
+            if (ranks[root1] < ranks[root2]) {
+                parents[root1] = root2;
+                root = root2;
+            } else {
+                parents[root2] = root1;
+                if (ranks[root1] == ranks[root2]) {
+                    ranks[root1]++;
+                }
+                root = root1;
+            }
+            primaries[root] = primary;
+            groups = null;
+        }
+    }
+
+    /**
+     * Builds the set of aliases of every group, keyed by the root of the group
+     */
+    private Map<Integer, Set<String>> getGroupsByRoot() {
+        if (groups == null) {
+            Map<Integer, Set<String>> map = new HashMap<>();
+            for (int id = 0; id < aliases.size(); id++) {
+                int root = find(id);
+                if (!map.containsKey(root)) {
+                    map.put(root, new HashSet<String>());
+                }
+                map.get(root).add(aliases.get(id));
+            }
+            for (Map.Entry<Integer, Set<String>> entry : map.entrySet()) {
+                entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+            }
+            groups = map;
+        }
+        return groups;
+    }
+
     public int getAliasCount(Set<String> group) {
         int count = 0;
         for (String s : group) {
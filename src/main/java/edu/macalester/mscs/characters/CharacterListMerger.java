@@ -2,17 +2,21 @@ package edu.macalester.mscs.characters;
 
 import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
+import edu.macalester.mscs.utils.ExternalSort;
 import edu.macalester.mscs.utils.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.*;
+import java.util.*;
 
 /**
- * Merges two character files into one. Assumes that both files are sorted alphabetically.
- * When there is a match, the line from the first file is used and the second line is ignored.
+ * Merges character files into one, matching lines by their first field (the unique id).
+ * When there is a match, the line from the first file is used and the later lines are ignored.
+ *
+ * The files do not need to be sorted: each one is sorted with a bounded-memory external sort,
+ * and then all of them are merged in a single pass, writing the tagged lines as they are merged.
+ * If a file has the same id on several lines, its first line matches the first line of the other
+ * files with that id, its second line matches their second line, and so on.
  *
  * Created by abeverid on 5/22/16.
  */
@@ -66,59 +70,160 @@ public class CharacterListMerger {
 
     }
 
+    /**
+     * Orders lines by their first field
+     */
+    public static final Comparator<String> KEY_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String o1, String o2) {
+            return StringUtils.substringBefore(o1, ",").compareTo(StringUtils.substringBefore(o2, ","));
+        }
+    };
+
+    /**
+     * Merges the curated list with the mynotoar list, tagging each line as an "old match" (in both),
+     * "old no match" (only curated) or "NEW NEW NEW NEW NEW" (only mynotoar).
+     * @param curatedFileName
+     * @param mynotoarFileName
+     * @param outputFileName
+     */
     public static void processFiles(String curatedFileName, String mynotoarFileName, String outputFileName) {
-        List<String> curatedList = FileUtils.readFile(curatedFileName);
-        List<String> mynotoarList = FileUtils.readFile(mynotoarFileName);
-
-        List<String> outputList = new ArrayList<>();
+        mergeFiles(outputFileName, new Tagger() {
+            @Override
+            public String tag(boolean[] present) {
+                if (present[0] && present[1]) {
+                    return "old match";
+                } else if (present[0]) {
+                    return "old no match";
+                } else {
+                    return "NEW NEW NEW NEW NEW";
+                }
+            }
+        }, ExternalSort.DEFAULT_MAX_LINES, curatedFileName, mynotoarFileName);
+    }
 
-        int curatedIndex = 0;
-        int mynotoarIndex = 0;
+    /**
+     * Merges any number of lists, such as curated, mynotoar and awoiaf lists. Each line is tagged with
+     * the labels of the lists that have its id, joined by '+', ie. "curated+awoiaf,Jon-Snow,..."
+     * @param outputFileName
+     * @param labels one label for each file
+     * @param fileNames
+     */
+    public static void mergeFiles(String outputFileName, final String[] labels, String... fileNames) {
+        if (labels.length != fileNames.length) {
+            throw new IllegalArgumentException("There must be one label for each file.");
+        }
+        mergeFiles(outputFileName, new Tagger() {
+            @Override
+            public String tag(boolean[] present) {
+                StringBuilder tag = new StringBuilder();
+                for (int i = 0; i < present.length; i++) {
+                    if (present[i]) {
+                        if (tag.length() > 0) {
+                            tag.append('+');
+                        }
+                        tag.append(labels[i]);
+                    }
+                }
+                return tag.toString();
+            }
+        }, ExternalSort.DEFAULT_MAX_LINES, fileNames);
+    }
 
-        while (curatedIndex < curatedList.size() || mynotoarIndex < mynotoarList.size()) {
-            String curatedLine = null;
-            if (curatedIndex < curatedList.size()) {
-                curatedLine = curatedList.get(curatedIndex);
+    /**
+     * Sorts every file by id, and then merges them all in one pass, streaming the tagged lines to the output file.
+     */
+    private static void mergeFiles(String outputFileName, Tagger tagger, int maxLines, String... fileNames) {
+        List<ExternalSort.SortedLines> lists = new ArrayList<>();
+        Map<String, Integer> tagCounts = new TreeMap<>();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFileName))) {
+            for (String fileName : fileNames) {
+                lists.add(ExternalSort.sort(fileName, KEY_ORDER, maxLines));
+            }
+            List<PeekingLines> heads = new ArrayList<>();
+            for (ExternalSort.SortedLines list : lists) {
+                heads.add(new PeekingLines(list));
+            }
+            String key;
+            while ((key = getMinKey(heads)) != null) {
+                // every line with this id, from each list
+                List<List<String>> group = new ArrayList<>();
+                int occurrences = 0;
+                for (PeekingLines head : heads) {
+                    List<String> lines = new ArrayList<>();
+                    while (head.peek() != null && key.equals(StringUtils.substringBefore(head.peek(), ","))) {
+                        lines.add(head.next());
+                    }
+                    group.add(lines);
+                    occurrences = Math.max(occurrences, lines.size());
+                }
+                for (int j = 0; j < occurrences; j++) {
+                    boolean[] present = new boolean[group.size()];
+                    String line = null;
+                    for (int i = 0; i < group.size(); i++) {
+                        if (group.get(i).size() > j) {
+                            present[i] = true;
+                            if (line == null) {
+                                line = group.get(i).get(j);
+                            }
+                        }
+                    }
+                    String tag = tagger.tag(present);
+                    writer.write(tag + "," + line);
+                    writer.write('\n');
+                    tagCounts.put(tag, tagCounts.containsKey(tag) ? tagCounts.get(tag) + 1 : 1);
+                }
             }
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing " + outputFileName, e);
+        } finally {
+            for (ExternalSort.SortedLines list : lists) {
+                list.close();
+            }
+        }
+        for (Map.Entry<String, Integer> entry : tagCounts.entrySet()) {
+            System.out.println(entry.getKey() + ": " + entry.getValue());
+        }
+    }
 
-            String mynotoarLine = null;
-            if (mynotoarIndex < mynotoarList.size()) {
-                mynotoarLine = mynotoarList.get(mynotoarIndex);
+    private static String getMinKey(List<PeekingLines> heads) {
+        String min = null;
+        for (PeekingLines head : heads) {
+            if (head.peek() != null) {
+                String key = StringUtils.substringBefore(head.peek(), ",");
+                if (min == null || key.compareTo(min) < 0) {
+                    min = key;
+                }
             }
+        }
+        return min;
+    }
 
-            if (curatedLine != null && mynotoarLine != null) {
-                String curatedKey = StringUtils.substringBefore(curatedLine, ",");
-                String mynotoarKey = StringUtils.substringBefore(mynotoarLine, ",");
+    /**
+     * Tags a merged line, given which of the lists have its id
+     */
+    private interface Tagger {
+        String tag(boolean[] present);
+    }
 
-                int val = curatedKey.compareTo(mynotoarKey);
+    private static class PeekingLines {
+        private final Iterator<String> lines;
+        private String head;
 
-                if (val == 0) {
-                    System.out.println("match: " + curatedLine);
-                    outputList.add("old match," + curatedLine);
-                    curatedIndex++;
-                    mynotoarIndex++;
-                } else if (val < 0) {
-                    System.out.println("curated no match: " + curatedLine);
-                    outputList.add("old no match," + curatedLine);
-                    curatedIndex++;
-                } else {
-                    System.out.println("official no match: " + mynotoarLine);
-                    outputList.add("NEW NEW NEW NEW NEW," + mynotoarLine);
-                    mynotoarIndex++;
-                }
-            } else if (curatedLine == null) {
-                System.out.println("mynotoar endgame: " + mynotoarLine);
-                outputList.add("NEW NEW NEW NEW NEW," + mynotoarLine);
-                mynotoarIndex++;
-            } else {
-                System.out.println("curated endgame: " + curatedLine);
-                outputList.add("old no match," + curatedLine);
-                curatedIndex++;
-            }
+        PeekingLines(Iterator<String> lines) {
+            this.lines = lines;
+            this.head = lines.hasNext() ? lines.next() : null;
+        }
 
+        String peek() {
+            return head;
         }
 
-        FileUtils.writeFile(outputList, outputFileName);
+        String next() {
+            String line = head;
+            head = lines.hasNext() ? lines.next() : null;
+            return line;
+        }
     }
 
     public static void processFilesOld(String curatedFileName, String mynotoarFileName, String outputFileName) {
@@ -1,40 +1,163 @@
 package edu.macalester.mscs.characters;
 
-import com.opencsv.CSVReader;
 import edu.macalester.mscs.utils.FileUtils;
+import edu.macalester.mscs.utils.Logger;
+import edu.macalester.mscs.utils.MultiPatternMatcher;
 import edu.macalester.mscs.utils.WordUtils;
 
-import java.io.FileReader;
-import java.io.IOException;
 import java.util.*;
 
 /**
+ * Sorts and validates a character list in a single pass, so it is fast enough to check before every build.
+ *
+ * Each line of the list is of the form
+ *     unique id, name1, name2, name3, ...
+ * as MatrixConstructor.makeCharacters reads it. The names are trimmed, blank and repeated names are dropped,
+ * and the names are sorted longest first (keeping the order of names with the same length). The report lists:
+ *     ids used by more than one line,
+ *     ids that are not among their own names,
+ *     names used by more than one character, which the network silently gives to the last of them,
+ *     names that occur as a whole word inside a name of another character, which the network may then split.
+ * The last check puts every name in one MultiPatternMatcher trie, and scans each name once against it.
+ *
  * @author abeverid
  */
 public class CharacterListSorter {
 
 
     public static void main(String args[]) {
+        sort("src/main/resources/data/characters/dwd-list-clean-redundant.txt",
+                "src/main/resources/data/characters/dwd-list-clean-redundant-ordered.csv");
+    }
+
+    /**
+     * Validates the character list without rewriting it, and returns the report
+     * @param inputFile
+     * @return
+     */
+    public static Logger check(String inputFile) {
+        return sort(inputFile, null);
+    }
+
+    /**
+     * Sorts the names of each character longest first, validates the list, and returns the report.
+     * The report is printed as it is made.
+     * @param inputFile
+     * @param outputFile the file to write the sorted list to, or null to only validate it
+     * @return
+     */
+    public static Logger sort(String inputFile, String outputFile) {
+        Logger report = new Logger(true);
+        List<String> keys = new ArrayList<>();
+        List<List<String>> characters = new ArrayList<>();
+        Map<String, Integer> keyLines = new HashMap<>();
+        Map<String, Integer> owners = new LinkedHashMap<>();
+        Set<String> duplicates = new LinkedHashSet<>();
+        MultiPatternMatcher<Integer> matcher = new MultiPatternMatcher<>();
+        int problems = 0;
 
-        try {
-            CSVReader reader = new CSVReader(new FileReader("src/main/resources/data/characters/dwd-list-clean-redundant.txt"));
-            List<String[]> lines = reader.readAll();
+        for (String line : FileUtils.readFile(inputFile)) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] split = line.split(",");
+            String key = split[0].trim();
+            int index = characters.size();
+            if (keyLines.containsKey(key)) {
+                report.log("Duplicate id: " + key);
+                problems++;
+            } else {
+                keyLines.put(key, index);
+            }
+            Set<String> names = new LinkedHashSet<>();
+            for (int i = 1; i < split.length; i++) {
+                String name = split[i].trim();
+                if (!name.isEmpty()) {
+                    names.add(name);
+                }
+            }
+            if (!names.contains(key)) {
+                report.log("Id is not one of its names: " + key);
+                problems++;
+            }
+            List<String> sorted = new ArrayList<>(names);
+            Collections.sort(sorted, WordUtils.DESCENDING_LENGTH_COMPARATOR);
+            keys.add(key);
+            characters.add(sorted);
+
+            // the id is a name too, as far as the network is concerned
+            names.add(key);
+            for (String name : names) {
+                Integer owner = owners.get(name);
+                if (owner == null) {
+                    owners.put(name, index);
+                    matcher.add(name, index);
+                } else if (owner != index) {
+                    duplicates.add(name);
+                }
+            }
+        }
+
+        for (String name : duplicates) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < characters.size(); i++) {
+                if (keys.get(i).equals(name) || characters.get(i).contains(name)) {
+                    sb.append(", ").append(keys.get(i));
+                }
+            }
+            report.log("Name used by several characters: " + name + " (" + sb.substring(2) + ")");
+            problems++;
+        }
+
+        for (Map.Entry<String, Integer> entry : owners.entrySet()) {
+            String name = entry.getKey();
+            Set<String> shadows = new TreeSet<>();
+            for (MultiPatternMatcher.Match<Integer> match : matcher.findMatches(name)) {
+                int owner = match.getValue();
+                if (owner != entry.getValue() && match.getEnd() - match.getStart() < name.length()
+                        && isWordStart(name, match.getStart()) && isWordEnd(name, match.getEnd())) {
+                    shadows.add(name.substring(match.getStart(), match.getEnd()) + " (" + keys.get(owner) + ")");
+                }
+            }
+            for (String shadow : shadows) {
+                report.log("Name of " + keys.get(entry.getValue()) + " contains name of another character: "
+                        + name + " contains " + shadow);
+                problems++;
+            }
+        }
+
+        report.log(inputFile + ": " + characters.size() + " characters, " + owners.size() + " names, "
+                + problems + " problems");
+
+        if (outputFile != null) {
             List<String> newlines = new ArrayList<>();
-            for (String[] line : lines) {
-                List<String> list = new ArrayList<>(Arrays.asList(line));
-                Collections.sort(list.subList(1, list.size()), WordUtils.DESCENDING_LENGTH_COMPARATOR);
-                newlines.add(asString(list));
-            }
-            FileUtils.writeFile(newlines, "src/main/resources/data/characters/dwd-list-clean-redundant-ordered.csv");
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            for (int i = 0; i < characters.size(); i++) {
+                newlines.add(asString(keys.get(i), characters.get(i)));
+            }
+            FileUtils.writeFile(newlines, outputFile);
         }
+        return report;
+    }
+
+    /**
+     * A name matched inside another starts a word there if it is at the start, or follows a non-word character
+     */
+    private static boolean isWordStart(String name, int start) {
+        return start == 0 || !Character.isLetterOrDigit(name.charAt(start - 1)) && name.charAt(start - 1) != '_';
+    }
+
+    /**
+     * A name matched inside another ends a word there if it is at the end, or precedes a character
+     * that ends words in Matrix.build
+     */
+    private static boolean isWordEnd(String name, int end) {
+        return end == name.length() || !WordUtils.isWordCharacter(name.charAt(end));
     }
 
-    private static String asString(List<String> list) {
-        StringBuilder sb = new StringBuilder(list.get(0));
-        for (int i = 1; i < list.size(); i++) {
-            sb.append(',').append(list.get(i));
+    private static String asString(String key, List<String> list) {
+        StringBuilder sb = new StringBuilder(key);
+        for (String name : list) {
+            sb.append(',').append(name);
         }
         return sb.toString();
     }
@@ -5,6 +5,7 @@ import edu.macalester.mscs.network.FeastForCrowsConstructor;
 import edu.macalester.mscs.network.GameOfThronesConstructor;
 import edu.macalester.mscs.network.StormOfSwordsConstructor;
 import edu.macalester.mscs.utils.FileUtils;
+import edu.macalester.mscs.utils.MultiPatternMatcher;
 
 import java.lang.reflect.Array;
 import java.io.*;
@@ -283,49 +284,7 @@ public class CharacterSearch {
             charLineMap.put(key,line);
         }
 
-        List<String> textLines = FileUtils.readFile(textName);
-
-        for (String textLine : textLines) {
-
-            List<String> removalList = new ArrayList<String>();
-
-            for (String key : charMap.keySet()) {
-                String[] tokens = charMap.get(key);
-
-                if (textLine.contains(tokens[SHORT_CAT_NAME_INDEX])) {
-                    // name
-                    System.out.println("matched: " + key + " name token:" + tokens[SHORT_CAT_NAME_INDEX]);
-                    removalList.add(key);
-                } else if ( tokens.length > SHORT_CAT_ALIAS_INDEX &&
-                        tokens[SHORT_CAT_ALIAS_INDEX].length() > 0 && textLine.contains(tokens[SHORT_CAT_ALIAS_INDEX])) {
-                    System.out.println("matched: " + key + " alias token:" + tokens[SHORT_CAT_ALIAS_INDEX]);
-                    removalList.add(key);
-                } else if ( tokens.length > SHORT_CAT_SURNAME_INDEX &&
-                        tokens[SHORT_CAT_TITLE_INDEX].length() > 0) {
-                    if (tokens[SHORT_CAT_SURNAME_INDEX].length() >0) {
-                        if (textLine.contains(tokens[SHORT_CAT_TITLE_INDEX] + ' ' + tokens[SHORT_CAT_SURNAME_INDEX])) {
-                            System.out.println("matched: " + key + " title/last name token:" + tokens[SHORT_CAT_TITLE_INDEX] + ' ' + tokens[SHORT_CAT_SURNAME_INDEX]);
-                            removalList.add(key);
-                        }
-                    }
-
-                    if (tokens[SHORT_CAT_SURNAME_INDEX].length() >0) {
-                        if (textLine.contains(tokens[SHORT_CAT_FORENAME_INDEX] + ' ' + tokens[SHORT_CAT_SURNAME_INDEX])) {
-                            System.out.println("matched: " + key + " first/last name token:" + tokens[SHORT_CAT_FORENAME_INDEX] + ' ' + tokens[SHORT_CAT_SURNAME_INDEX]);
-                            removalList.add(key);
-                        }
-                    }
-                }
-
-
-            }
-
-            if (removalList.size() > 0) {
-                for (String k : removalList) {
-                    charMap.remove(k);
-                }
-            }
-        }
+        charMap.keySet().removeAll(findMatchedKeys(textName, getCatalogMatcher(charMap, false)));
 
 
         System.out.println("===== didn't match " + charMap.size());
@@ -385,32 +344,14 @@ public class CharacterSearch {
             System.out.println("Added possible key:" +key);
         }
 
-        List<String> textLines = FileUtils.readFile(textName);
-
-        for (String textLine : textLines) {
-
-            List<String> removalList = new ArrayList<String>();
-
-            for (String key : charMap.keySet()) {
-                String[] tokens = charMap.get(key);
-
-
-                for (String token : tokens) {
-                    if (textLine.contains(token) || textLine.contains(token.replace('-',' '))) {
-                        System.out.println("matched: " + key + " token:" + token);
-                        removalList.add(key);
-                    }
-                }
-
-
-            }
-
-            if (removalList.size() > 0) {
-                for (String k : removalList) {
-                    charMap.remove(k);
-                }
+        MultiPatternMatcher<Candidate> matcher = new MultiPatternMatcher<>();
+        for (String key : charMap.keySet()) {
+            for (String token : charMap.get(key)) {
+                matcher.add(token, new Candidate(key, "token:" + token));
+                matcher.add(token.replace('-', ' '), new Candidate(key, "token:" + token));
             }
         }
+        charMap.keySet().removeAll(findMatchedKeys(textName, matcher));
 
 
         System.out.println("===== didn't match " + charMap.size());
@@ -466,49 +407,7 @@ public class CharacterSearch {
             charLineMap.put(key,line);
         }
 
-        List<String> textLines = FileUtils.readFile(textName);
-
-        for (String textLine : textLines) {
-
-            List<String> removalList = new ArrayList<String>();
-
-            for (String key : charMap.keySet()) {
-                String[] tokens = charMap.get(key);
-
-                if (textLine.contains(tokens[SHORT_CAT_NAME_INDEX])) {
-                    // name
-                    System.out.println("matched: " + key + " name token:" + tokens[SHORT_CAT_NAME_INDEX]);
-                    removalList.add(key);
-                } else if ( tokens.length > SHORT_CAT_ALIAS_INDEX &&
-                        tokens[SHORT_CAT_ALIAS_INDEX].length() > 0 &&  hasAlias(textLine, tokens[SHORT_CAT_ALIAS_INDEX].split(";"))) {
-                    System.out.println("matched: " + key + " alias token:" + tokens[SHORT_CAT_ALIAS_INDEX]);
-                    removalList.add(key);
-                } else if ( tokens.length > SHORT_CAT_SURNAME_INDEX &&
-                        tokens[SHORT_CAT_TITLE_INDEX].length() > 0) {
-                    if (tokens[SHORT_CAT_SURNAME_INDEX].length() >0) {
-                        if (textLine.contains(tokens[SHORT_CAT_TITLE_INDEX] + ' ' + tokens[SHORT_CAT_SURNAME_INDEX])) {
-                            System.out.println("matched: " + key + " title/last name token:" + tokens[SHORT_CAT_TITLE_INDEX] + ' ' + tokens[SHORT_CAT_SURNAME_INDEX]);
-                            removalList.add(key);
-                        }
-                    }
-
-                    if (tokens[SHORT_CAT_SURNAME_INDEX].length() >0) {
-                        if (textLine.contains(tokens[SHORT_CAT_FORENAME_INDEX] + ' ' + tokens[SHORT_CAT_SURNAME_INDEX])) {
-                            System.out.println("matched: " + key + " first/last name token:" + tokens[SHORT_CAT_FORENAME_INDEX] + ' ' + tokens[SHORT_CAT_SURNAME_INDEX]);
-                            removalList.add(key);
-                        }
-                    }
-                }
-
-
-            }
-
-            if (removalList.size() > 0) {
-                for (String k : removalList) {
-                    charMap.remove(k);
-                }
-            }
-        }
+        charMap.keySet().removeAll(findMatchedKeys(textName, getCatalogMatcher(charMap, true)));
 
 
         System.out.println("===== didn't match " + charMap.size());
@@ -544,16 +443,68 @@ public class CharacterSearch {
     }
 
 
-    private static boolean hasAlias(String line, String[] alias) {
-        boolean retVal = false;
+    /**
+     * Compiles every string that identifies a character in the catalog into one matcher:
+     * the name, the alias (or each alias, if splitAliases), and the title or forename with the surname.
+     * @param charMap
+     * @param splitAliases
+     * @return
+     */
+    private static MultiPatternMatcher<Candidate> getCatalogMatcher(Map<String, String[]> charMap, boolean splitAliases) {
+        MultiPatternMatcher<Candidate> matcher = new MultiPatternMatcher<>();
+        for (String key : charMap.keySet()) {
+            String[] tokens = charMap.get(key);
+            matcher.add(tokens[SHORT_CAT_NAME_INDEX], new Candidate(key, "name token:" + tokens[SHORT_CAT_NAME_INDEX]));
+            if (tokens.length > SHORT_CAT_ALIAS_INDEX && tokens[SHORT_CAT_ALIAS_INDEX].length() > 0) {
+                String[] aliases = splitAliases ? tokens[SHORT_CAT_ALIAS_INDEX].split(";") : new String[] {tokens[SHORT_CAT_ALIAS_INDEX]};
+                for (String alias : aliases) {
+                    matcher.add(alias, new Candidate(key, "alias token:" + tokens[SHORT_CAT_ALIAS_INDEX]));
+                }
+            }
+            if (tokens.length > SHORT_CAT_SURNAME_INDEX && tokens[SHORT_CAT_TITLE_INDEX].length() > 0
+                    && tokens[SHORT_CAT_SURNAME_INDEX].length() > 0) {
+                String titleSurname = tokens[SHORT_CAT_TITLE_INDEX] + ' ' + tokens[SHORT_CAT_SURNAME_INDEX];
+                String forenameSurname = tokens[SHORT_CAT_FORENAME_INDEX] + ' ' + tokens[SHORT_CAT_SURNAME_INDEX];
+                matcher.add(titleSurname, new Candidate(key, "title/last name token:" + titleSurname));
+                matcher.add(forenameSurname, new Candidate(key, "first/last name token:" + forenameSurname));
+            }
+        }
+        return matcher;
+    }
+
+    private static Set<String> findMatchedKeys(String textName, MultiPatternMatcher<Candidate> matcher) {
+        return findMatchedKeys(FileUtils.readFile(textName), matcher);
+    }
 
-        for (String a : alias) {
-            if (line.contains(a)) {
-                retVal = true;
+    /**
+     * Scans each line of the text once, and returns the keys of every candidate that occurs in it
+     * @param textLines
+     * @param matcher
+     * @return
+     */
+    private static Set<String> findMatchedKeys(List<String> textLines, MultiPatternMatcher<Candidate> matcher) {
+        Set<String> matched = new HashSet<String>();
+        for (String textLine : textLines) {
+            for (Candidate candidate : matcher.findAll(textLine)) {
+                if (matched.add(candidate.key)) {
+                    System.out.println("matched: " + candidate.key + " " + candidate.token);
+                }
             }
         }
+        return matched;
+    }
 
-        return retVal;
+    /**
+     * A string to search the text for, and the key of the character it identifies
+     */
+    private static class Candidate {
+        final String key;
+        final String token;
+
+        Candidate(String key, String token) {
+            this.key = key;
+            this.token = token;
+        }
     }
 
 
@@ -794,36 +745,15 @@ public class CharacterSearch {
             nameList.add(w.split("-\\(")[0]);
         }
 
-        for (String textLine : textLines) {
-
-            List<String> removalList = new ArrayList<String>();
-
-            for (String id : nameList) {
-
-
-                String  name = id.replace('-',' ').trim();
-                String firstName = name.split(" ")[0];
-
-                if (textLine.contains(id)) {
-                    System.out.println("\tmatched: " + id + " token:" + id);
-                    removalList.add(id);
-                } else if ( textLine.contains(name)) {
-                    System.out.println("\tmatched: " + id + " token:" + name);
-                    removalList.add(id);
-                } else if (textLine.contains(firstName)) {
-                    System.out.println("\tmatched: " + id + " token:" + firstName);
-                    removalList.add(id);
-                }
-
-
-            }
-
-            if (removalList.size() > 0) {
-                for (String k : removalList) {
-                    nameList.remove(k);
-                }
-            }
+        MultiPatternMatcher<Candidate> matcher = new MultiPatternMatcher<>();
+        for (String id : nameList) {
+            String  name = id.replace('-',' ').trim();
+            String firstName = name.split(" ")[0];
+            matcher.add(id, new Candidate(id, "token:" + id));
+            matcher.add(name, new Candidate(id, "token:" + name));
+            matcher.add(firstName, new Candidate(id, "token:" + firstName));
         }
+        nameList.removeAll(findMatchedKeys(textLines, matcher));
 
 
         System.out.println("===== didn't match " + nameList.size());
@@ -1,10 +1,10 @@
 package edu.macalester.mscs.characters;
 
-import com.opencsv.CSVReader;
 import edu.macalester.mscs.network.*;
 import edu.macalester.mscs.utils.FileUtils;
+import edu.macalester.mscs.utils.MultiPatternMatcher;
 
-import java.io.FileReader;
+import java.io.*;
 import java.util.*;
 
 /**
@@ -16,13 +16,17 @@ import java.util.*;
  *
  * We assume that each line in the character list is of the form
  *     unique id, name1, name2, name3, ...
- * where the names are ordered by reverse inclusion. In other words, the line for Jon Snow would look like:
+ * In other words, the line for Jon Snow would look like:
  *     Jon Snow, Jon Snow, Lord Snow, Snow, Jon
- * Here, "Jon" must come after "Jon Snow" since "Jon" is a substring of "Jon Snow"
  * This line will be replaced by a hyphenated version:
  *    Jon-Snow, Jon-Snow, Lord-Snow, Snow, Jon
  * and the text will likewise be updated.
  *
+ * The text is rewritten in a single pass, replacing the longest name at the leftmost position where
+ * any name starts, so the order of the names in the list does not matter. For example, if both
+ * "Lord Snow" and "Lord Snow of the Wall" are names, the text "Lord Snow of the Wall" always becomes
+ * "Lord-Snow-of-the-Wall".
+ *
  * Created by abeverid on 4/29/16.
  */
 public class CharacterTokenUpdater {
@@ -81,8 +85,7 @@ public class CharacterTokenUpdater {
     private static void hyphenate() {
 
         List<String> charLines = FileUtils.readFile(CHARACTER_FILE_NAME);
-        List<String> tokens = new ArrayList<>();
-        List<String> tokensNoSpaces = new ArrayList<>();
+        MultiPatternMatcher<String> matcher = new MultiPatternMatcher<>();
 
         // make hyphenated version
         List<String> newCharLines = new ArrayList<>();
@@ -95,73 +98,51 @@ public class CharacterTokenUpdater {
 
             // Note that we SKIP the first entry in each line (the unique id).
             // This entry MUST repeat in the list of values that follow!
-            // The unique id is often a short version of the name, while the remaining entries must be ordered
-            // so that if name1 appears before name2 then name1 is NOT a substring of name2
 
             for (int i = 1; i < splitLine.length; i++) {
                 String word = splitLine[i];
                 if (word.contains(" ")) {
                     System.out.println("adding: [" + word + "]");
-                    tokens.add(word);
-                    tokensNoSpaces.add(word.replace(" ", "-"));
+                    matcher.add(word, word.replace(" ", "-"));
                 } else {
                     System.out.println("skipping: [" + word + "]");
                 }
             }
         }
 
-        List<String> text = FileUtils.readFile(TEXT_FILE_NAME);
-        List<String> newText = new ArrayList<>();
-
-        for (String line : text) {
-            for (int k = 0; k < tokens.size(); k++) {
-                line = line.replace(tokens.get(k), tokensNoSpaces.get(k));
-            }
-            newText.add(line);
-        }
-
-        FileUtils.writeFile(newText, UPDATED_TEXT_FILE_NAME);
+        hyphenateText(matcher, TEXT_FILE_NAME, UPDATED_TEXT_FILE_NAME);
         FileUtils.writeFile(newCharLines, UPDATED_CHARACTER_FILE_NAME);
     }
 
-
-    private static void checkUnique() {
-
-        String fileName = DanceWithDragonsConstructor.CHARACTER_FILE_NAME;
-        try {
-            CSVReader reader = new CSVReader(new FileReader(fileName));
-
-            List<String[]> data = reader.readAll();
-            Set<String> keySet = new TreeSet<String>();
-            Set<String> aliasSet = new TreeSet<String>();
-
-            for (String[] charData : data) {
-                String key = charData[0].trim();
-                if (key.length() > 0) {
-                    if (keySet.contains(key)) {
-                        System.out.println("keySet already has key:" + key);
-                    } else {
-                        keySet.add(key);
-                    }
-                }
-
-                for (int i=1; i < charData.length; i++) {
-                    key = charData[i].trim();
-
-                    if (key.length() > 0) {
-                        if (aliasSet.contains(key)) {
-                            System.out.println("aliasSet already has key:" + key);
-                        } else {
-                            aliasSet.add(key);
-                        }
-                    }
+    /**
+     * Streams the text to the output file line by line (trimmed, as FileUtils reads it),
+     * replacing the leftmost-longest matches of the names with their hyphenated versions.
+     * @param matcher
+     * @param textFileName
+     * @param outputFileName
+     */
+    private static void hyphenateText(MultiPatternMatcher<String> matcher, String textFileName, String outputFileName) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(textFileName));
+             BufferedWriter writer = new BufferedWriter(new FileWriter(outputFileName))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                int end = 0;
+                for (MultiPatternMatcher.Match<String> match : matcher.findLeftmostLongest(line)) {
+                    writer.write(line, end, match.getStart() - end);
+                    writer.write(match.getValue());
+                    end = match.getEnd();
                 }
+                writer.write(line, end, line.length() - end);
+                writer.write('\n');
             }
-
-
-        } catch (Exception e) {
-            e.printStackTrace();
+        } catch (IOException e) {
+            throw new RuntimeException("Error hyphenating " + textFileName, e);
         }
     }
 
+    private static void checkUnique() {
+        CharacterListSorter.check(DanceWithDragonsConstructor.CHARACTER_FILE_NAME);
+    }
+
 }
@@ -9,11 +9,19 @@ import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.*;
 import java.lang.reflect.Array;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * This is an omnibus data cleaning file that contains methods that I used to convert the scrapped information
@@ -38,6 +46,13 @@ public class WikiUpdater {
 
     public static final String NEW_PREFIX = "file:/"+ NEW_AWOIAF_DIR;
 
+    //private static final Pattern LINK_PATTERN = Pattern.compile("mac/gameofthrones/awoiaflist/([a-zA-Z_]+)");
+
+    // I think this works. Fixes % and - and '
+    private static final Pattern LINK_PATTERN = Pattern.compile("awoiaflist2/([a-zA-Z_()%-']+)");
+
+    private static final Pattern CAMEL_CASE_PATTERN = Pattern.compile("(?<=[a-z])(?=[A-Z])|(?<=[A-Z])(?=[A-Z][a-z])");
+
 
     public static final String FINAL_AWOIAF_DIR = "src/main/resources/data/characters/awoiaf/";
 
@@ -63,16 +78,13 @@ public class WikiUpdater {
     public static void main(String[] args) {
 
 
-        //renameFiles();
-
         //updateFiles();
 
         //createCharacterList();
 
         //trimWhitespace();
 
-        //createBookCharacterLists();
-        //createAllCharacterList();
+        //createCharacterLists();
 
         compareLists();
 
@@ -82,58 +94,62 @@ public class WikiUpdater {
     }
 
     /**
-     * Updates the files to point to the local copy of the character HTML files
+     * Updates the files to point to the local copy of the character HTML files, and renames them
+     * to use underscores instead of spaces.
+     *
+     * Each file is rewritten in a single pass, straight from the raw directory to its final name,
+     * and the files are processed in parallel. At most a few files per thread are queued at a time,
+     * and when the queue is full the directory walk runs the next file itself.
      */
     private static void updateFiles() {
-        try {
-            File dir = new File(AWOIAF_DIR);
-            File[] files = dir.listFiles();
-
-            for (int i=0; i < files.length; i++) {
-                System.out.println("Updating " + files[i].getName());
-
-                List<String> data = FileUtils.readFile(files[i].getAbsolutePath());
-
-                for (int j = 0; j < data.size(); j++) {
-                    String line = data.get(j);
-
-                    line = StringUtils.replace(line, OLD_PREFIX1, NEW_PREFIX);
-                    line = StringUtils.replace(line, OLD_PREFIX2, NEW_PREFIX);
-
-
-                    //line = line.replaceAll("mac/gameofthrones/awoiaflist/([a-zA-Z_]+)", "/$0.html");
-
-                    // I think this works. Fixes % and - and '
-                    line = line.replaceAll("awoiaflist2/([a-zA-Z_()%-']+)", "$0.html");
-
-                    data.set(j, line);
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(4 * threads), new ThreadPoolExecutor.CallerRunsPolicy());
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(AWOIAF_DIR))) {
+            final Path newDir = Paths.get(NEW_AWOIAF_DIR);
+            List<Future<?>> futures = new ArrayList<>();
+            for (final Path file : files) {
+                if (!Files.isRegularFile(file)) {
+                    continue;
                 }
-
-                FileUtils.writeFile(data, NEW_AWOIAF_DIR + "/" + files[i].getName());
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        updateFile(file, newDir);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
             }
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            executor.shutdown();
         }
-
     }
 
-
     /**
-     * Renames files to use underscores instead of spaces
+     * Rewrites the links in one file, and writes it to the new directory with underscores instead of spaces
+     * @param file
+     * @param newDir
      */
-    private static void renameFiles() {
-        try {
-            File dir = new File(NEW_AWOIAF_DIR);
-            File[] files = dir.listFiles();
-
-            for (int i=0; i < files.length; i++) {
-                String fileName = files[i].getName();
-                fileName = fileName.replace(' ', '_') + ".html";
-                files[i].renameTo(new File(dir, fileName));
+    private static void updateFile(Path file, Path newDir) {
+        String fileName = file.getFileName().toString();
+        System.out.println("Updating " + fileName);
+        Path newFile = newDir.resolve(fileName.replace(' ', '_') + ".html");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file)));
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(newFile)))) {
+            Matcher matcher = LINK_PATTERN.matcher("");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = StringUtils.replace(line.trim(), OLD_PREFIX1, NEW_PREFIX);
+                line = StringUtils.replace(line, OLD_PREFIX2, NEW_PREFIX);
+                writer.write(matcher.reset(line).replaceAll("$0.html"));
+                writer.write('\n');
             }
-
-        } catch (Exception e) {
-            e.printStackTrace();
+        } catch (IOException e) {
+            throw new RuntimeException("Error updating " + file, e);
         }
     }
 
@@ -170,7 +186,7 @@ public class WikiUpdater {
 
                     entry = entry.trim();
 
-                    String[] splitEntry = entry.split("(?<=[a-z])(?=[A-Z])|(?<=[A-Z])(?=[A-Z][a-z])");
+                    String[] splitEntry = CAMEL_CASE_PATTERN.split(entry);
                     StringBuffer sb = new StringBuffer();
 
                     for (int k=0; k < splitEntry.length; k++) {
@@ -205,217 +221,137 @@ public class WikiUpdater {
     }
 
 
-    private static void createBookCharacterLists() {
-
-        try {
-            CSVReader reader = new CSVReader(new FileReader(TRIMMED_FILE_NAME));
-
-            List<String[]> lines = reader.readAll();
-            reader.close();
-
-            for (int i = 0; i < BOOK_NAMES.length; i++) {
-
-                System.out.println("Creating character list for " + BOOK_NAMES[i]);
-
-                CSVWriter writer =
-                        new CSVWriter(new FileWriter(FINAL_AWOIAF_DIR + BOOK_NAMES[i].replace(' ','-') + "-characters.csv"));
-                String charId = null;
-                String charName = null;
-                String title = null;
-                String fullName = null;
-                String alias = null;
-                String allegiance = null;
-                String royalHouse = null;
-                String culture = null;
-                String refType = null;
-
-
-                // header
-                writer.writeNext(new String[] {"Id", "Name", "Full Name", "Title", "Alias",
-                        "Allegiance", "Royal House", "Culture", "Reference"});
+    /**
+     * Creates the character list for each book, and the list of all characters, in a single pass over the catalog.
+     *
+     * The catalog has one row per attribute, with the rows of each character together, so each character
+     * is built up from its rows and then written to the all characters list and to the list of every book
+     * it appears in, before the next character is read.
+     */
+    private static void createCharacterLists() {
+        try (CSVReader reader = new CSVReader(new FileReader(TRIMMED_FILE_NAME));
+             CSVWriter allWriter = new CSVWriter(new FileWriter(ALL_CHAR_FILE_NAME))) {
+            CSVWriter[] bookWriters = new CSVWriter[BOOK_NAMES.length];
+            try {
+                for (int i = 0; i < BOOK_NAMES.length; i++) {
+                    System.out.println("Creating character list for " + BOOK_NAMES[i]);
+                    bookWriters[i] = new CSVWriter(new FileWriter(FINAL_AWOIAF_DIR + BOOK_NAMES[i].replace(' ','-') + "-characters.csv"));
+                    bookWriters[i].writeNext(new String[] {"Id", "Name", "Full Name", "Title", "Alias",
+                            "Allegiance", "Royal House", "Culture", "Reference"});
+                }
+                allWriter.writeNext(new String[] {"Id", "Name", "Full Name", "Title", "Alias",
+                        "Allegiance", "Royal House", "Culture", "Book(s)"});
 
                 // skip header line
-                for (int j=1; j < lines.size(); j++) {
-                    String[] data = lines.get(j);
-
-
-                    if (! data[0].equals(charName)) {
-                        // encountered a new character, so write the current info if
-                        // the character is in the current book
-                        if (charName != null && refType != null) {
-                            writer.writeNext(new String[]
-                                    {charId, charName, fullName, title, alias, allegiance, royalHouse, culture, refType});
+                reader.readNext();
+                WikiCharacter character = null;
+                String[] data;
+                while ((data = reader.readNext()) != null) {
+                    if (character == null || !data[0].equals(character.charName)) {
+                        // encountered a new character, so write the current one
+                        if (character != null) {
+                            character.write(allWriter, bookWriters);
                         }
-
-                        // reset character data
-                        charName = data[0];
-                        charId = charName.replace(' ','-');
-                        title = "";
-                        fullName = "";
-                        alias = "";
-                        allegiance = "";
-                        royalHouse = "";
-                        culture = "";
-                        refType = null;
-
-                        System.out.println("char="+ charName);
+                        character = new WikiCharacter(data[0]);
+                        System.out.println("char="+ character.charName);
                     }
-
-                    if (data[1].equals("Book(s)")) {
-                        refType = getBookReference(data[2], BOOK_NAMES[i]);
-                    } else if (data[1].equals("Title")) {
-                        if (title.length() > 0) {
-                            throw (new Exception(charName + " already has title [" +
-                                    title + "] when processing " + data[2]));
-                        }
-                        title = data[2];
-                    } else if (data[1].equals("Full Name")) {
-                        if (fullName.length() > 0) {
-                            throw (new Exception(charName + " already has fullName [" + fullName + "] when processing " + data[2]));
-                        }
-                        fullName = data[2];
-                    } else if (data[1].equals("Alias") || data[1].equals("Other Titles")) {
-                        if (alias.length() == 0) {
-                            alias = charName + ';' + data[2].replace(",", ";");
-                        } else {
-                            alias = alias + ";" + data[2].replace(",",";");
-                        }
-                   } else if (data[1].equals("Allegiance")) {
-                        if (allegiance.length() > 0) {
-                            throw (new Exception(charName + " already has allegiance [" + allegiance + "] when processing " + data[2]));
-                        }
-                        allegiance = data[2];
-                    } else if (data[1].equals("Royal House")) {
-                        if (royalHouse.length() > 0) {
-                            throw (new Exception(charName + " already has royalHouse [" + royalHouse + "] when processing " + data[2]));
-                        }
-                        royalHouse = data[2];
-                        allegiance =  (allegiance.length() > 0) ? allegiance = allegiance + ";" + data[2]: data[2];
-                    } else if (data[1].equals("Culture")) {
-                        if (culture.length() > 0) {
-                            throw (new Exception(charName + " already has culture [" + culture + "] when processing " + data[2]));
-                        }
-                        culture = data[2];
+                    character.add(data);
+                }
+                if (character != null) {
+                    character.write(allWriter, bookWriters);
+                }
+            } finally {
+                for (CSVWriter writer : bookWriters) {
+                    if (writer != null) {
+                        writer.close();
                     }
                 }
-
-                writer.close();
-
-
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
-
     }
 
+    /**
+     * The attributes of a character in the catalog
+     */
+    private static class WikiCharacter {
+        private final String charId;
+        private final String charName;
+        private String title = "";
+        private String fullName = "";
+        private String alias = "";
+        private String allegiance = "";
+        private String royalHouse = "";
+        private String culture = "";
+        private String books = null;
+
+        private WikiCharacter(String charName) {
+            this.charName = charName;
+            this.charId = charName.replace(' ','-');
+        }
 
-
-
-    private static void createAllCharacterList() {
-
-        try {
-            CSVReader reader = new CSVReader(new FileReader(TRIMMED_FILE_NAME));
-
-            List<String[]> lines = reader.readAll();
-            reader.close();
-
-               CSVWriter writer =
-                        new CSVWriter(new FileWriter(ALL_CHAR_FILE_NAME));
-                String charId = null;
-                String charName = null;
-                String title = null;
-                String otherTitle = null;
-                String fullName = null;
-                String alias = null;
-                String allegiance = null;
-                String royalHouse = null;
-                String culture = null;
-                String books = null;
-
-
-                // header
-                writer.writeNext(new String[] {"Id", "Name", "Full Name", "Title", "Alias",
-                        "Allegiance", "Royal House", "Culture", "Book(s)"});
-
-                // skip header line
-                for (int j=1; j < lines.size(); j++) {
-                    String[] data = lines.get(j);
-
-
-                    if (! data[0].equals(charName)) {
-                        // encountered a new character, so write the current info if
-                        // the character is in the current book
-                        if (charName != null) {
-                            writer.writeNext(new String[]
-                                    {charId, charName, fullName, title, alias, allegiance, royalHouse, culture, books});
-                        }
-
-                        // reset character data
-                        charName = data[0];
-                        charId = charName.replace(' ','-');
-                        title = "";
-                        fullName = "";
-                        alias = "";
-                        allegiance = "";
-                        royalHouse = "";
-                        culture = "";
-                        books = null;
-
-                        System.out.println("char="+ charName);
-                    }
-
-                    if (data[1].equals("Book(s)")) {
-                        books = data[2];
-                    } else if (data[1].equals("Title")) {
-                        if (title.length() > 0) {
-                            throw (new Exception(charName + " already has title [" +
-                                    title + "] when processing " + data[2]));
-                        }
-                        title = data[2];
-                    } else if (data[1].equals("Full Name")) {
-                        if (fullName.length() > 0) {
-                            throw (new Exception(charName + " already has fullName [" + fullName + "] when processing " + data[2]));
-                        }
-                        fullName = data[2];
-                    } else if (data[1].equals("Alias") || data[1].equals("Other Titles")) {
-                        if (alias.length() == 0) {
-                            alias = charName + ';' + data[2].replace(",", ";");
-                        } else {
-                            alias = alias + ";" + data[2].replace(",",";");
-                        }
-                    } else if (data[1].equals("Allegiance")) {
-                        if (allegiance.length() > 0) {
-                            throw (new Exception(charName + " already has allegiance [" + allegiance + "] when processing " + data[2]));
-                        }
-                        allegiance = data[2];
-                    } else if (data[1].equals("Royal House")) {
-                        if (royalHouse.length() > 0) {
-                            throw (new Exception(charName + " already has royalHouse [" + royalHouse + "] when processing " + data[2]));
-                        }
-                        royalHouse = data[2];
-                        allegiance =  (allegiance.length() > 0) ? allegiance = allegiance + ";" + data[2]: data[2];
-                    } else if (data[1].equals("Culture")) {
-                        if (culture.length() > 0) {
-                            throw (new Exception(charName + " already has culture [" + culture + "] when processing " + data[2]));
-                        }
-                        culture = data[2];
-                    }
+        private void add(String[] data) {
+            if (data[1].equals("Book(s)")) {
+                books = data[2];
+            } else if (data[1].equals("Title")) {
+                if (title.length() > 0) {
+                    throw new IllegalStateException(charName + " already has title [" +
+                            title + "] when processing " + data[2]);
                 }
-
-                writer.close();
-
-
-
-        } catch (Exception e) {
-            e.printStackTrace();
+                title = data[2];
+            } else if (data[1].equals("Full Name")) {
+                if (fullName.length() > 0) {
+                    throw new IllegalStateException(charName + " already has fullName [" + fullName + "] when processing " + data[2]);
+                }
+                fullName = data[2];
+            } else if (data[1].equals("Alias") || data[1].equals("Other Titles")) {
+                if (alias.length() == 0) {
+                    alias = charName + ';' + data[2].replace(",", ";");
+                } else {
+                    alias = alias + ";" + data[2].replace(",",";");
+                }
+            } else if (data[1].equals("Allegiance")) {
+                if (allegiance.length() > 0) {
+                    throw new IllegalStateException(charName + " already has allegiance [" + allegiance + "] when processing " + data[2]);
+                }
+                allegiance = data[2];
+            } else if (data[1].equals("Royal House")) {
+                if (royalHouse.length() > 0) {
+                    throw new IllegalStateException(charName + " already has royalHouse [" + royalHouse + "] when processing " + data[2]);
+                }
+                royalHouse = data[2];
+                allegiance = (allegiance.length() > 0) ? allegiance + ";" + data[2] : data[2];
+            } else if (data[1].equals("Culture")) {
+                if (culture.length() > 0) {
+                    throw new IllegalStateException(charName + " already has culture [" + culture + "] when processing " + data[2]);
+                }
+                culture = data[2];
+            }
         }
 
+        /**
+         * Writes the character to the all characters list, and to the list of each book
+         * it appears in (not counting the appendix)
+         * @param allWriter
+         * @param bookWriters
+         */
+        private void write(CSVWriter allWriter, CSVWriter[] bookWriters) {
+            allWriter.writeNext(new String[]
+                    {charId, charName, fullName, title, alias, allegiance, royalHouse, culture, books});
+            if (books == null) {
+                return;
+            }
+            for (int i = 0; i < BOOK_NAMES.length; i++) {
+                String refType = getBookReference(books, BOOK_NAMES[i]);
+                if (refType != null) {
+                    bookWriters[i].writeNext(new String[]
+                            {charId, charName, fullName, title, alias, allegiance, royalHouse, culture, refType});
+                }
+            }
+        }
     }
 
-
-
-
     /**
      *
      * @param bookString The string of book references
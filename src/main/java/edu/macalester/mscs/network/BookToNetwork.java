@@ -1,5 +1,6 @@
 package edu.macalester.mscs.network;
 
+import edu.macalester.mscs.characters.CharacterListSorter;
 
 public class BookToNetwork {
 
@@ -33,6 +34,9 @@ public class BookToNetwork {
             int radius = Integer.parseInt(args[4]);
             int noise = Integer.parseInt(args[5]);
 
+            // report conflicting names before spending time on the text
+            CharacterListSorter.check(characterFileName);
+
             MatrixConstructor mc = new MatrixConstructor(bookId, textFileName, characterFileName, radius, noise);
 
             mc.constructMatrix(fileDesc, outDir);
@@ -62,6 +66,8 @@ public class BookToNetwork {
 
         System.out.println("Running BookToNetwork with default configuration");
 
+        CharacterListSorter.check(characterFileName);
+
         MatrixConstructor mc = new MatrixConstructor(bookId, textFileName, characterFileName, radius, noise);
 
         mc.constructMatrix(fileDesc, outDir);
@@ -0,0 +1,247 @@
+package edu.macalester.mscs.network;
+
+import edu.macalester.mscs.utils.Logger;
+import edu.macalester.mscs.utils.TextIndex;
+
+import java.util.*;
+
+/**
+ * How a network changes over the course of a book, as a sequence of matrices over slices of the text.
+ *
+ * Every encounter already records its position in the text, so the slices are tallied from the encounters
+ * of a single Matrix.build, rather than building the matrix again for each slice. The slices are either the
+ * chapters of the book, or windows of a fixed number of characters that slide through the text by a fixed
+ * step. The chapters are those of a TextIndex of the text, which finds them by their heading lines and maps
+ * them to offsets in the text as FileUtils.readText joins it. Each encounter in a slice adds 1 to the weight
+ * between its characters. Encounters whose edge is no longer in the matrix, because its noise or its
+ * characters were cleaned, are skipped, so the chapter matrices add up to the matrix as it is, cleaned or not.
+ *
+ * Consecutive slices mostly share their edges, so only the first slice is stored in full, as the change
+ * from an empty matrix, and each later slice is stored as the edges whose weights changed from the slice
+ * before it. The encounters are scanned once, in order, adding those that enter each slice and removing
+ * those that leave it.
+ */
+public class DynamicNetwork {
+
+    /**
+     * The window and step, in characters, of the slices of a book without chapter headings
+     */
+    public static final int DEFAULT_WINDOW = 40000;
+    public static final int DEFAULT_STEP = 20000;
+
+    private final String[] characters;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[][] sources;
+    private final int[][] targets;
+    private final int[][] changes;
+
+    private DynamicNetwork(String[] characters, int[] starts, int[] ends,
+                           int[][] sources, int[][] targets, int[][] changes) {
+        this.characters = characters;
+        this.starts = starts;
+        this.ends = ends;
+        this.sources = sources;
+        this.targets = targets;
+        this.changes = changes;
+    }
+
+    /**
+     * Slices the encounters of the matrix by the chapters of the text, or, if the index finds fewer than
+     * two chapter headings, by windows of DEFAULT_WINDOW characters every DEFAULT_STEP characters
+     * @param matrix
+     * @param index the index of the text the matrix was built from
+     * @param textLength the length of the text the matrix was built from
+     * @return
+     */
+    public static DynamicNetwork byChapterOrWindow(Matrix matrix, TextIndex index, int textLength) {
+        if (index.getChapterCount() < 2) {
+            return byWindow(matrix, textLength, DEFAULT_WINDOW, DEFAULT_STEP);
+        }
+        return byChapter(matrix, index, textLength);
+    }
+
+    /**
+     * Slices the encounters of the matrix by the chapters of the index. Each chapter starts at its heading
+     * line and ends where the next one starts. Any text before the first heading is a chapter of its own.
+     * @param matrix
+     * @param index the index of the text the matrix was built from
+     * @param textLength the length of the text the matrix was built from
+     * @return
+     */
+    public static DynamicNetwork byChapter(Matrix matrix, TextIndex index, int textLength) {
+        List<Integer> boundaries = new ArrayList<>();
+        boundaries.add(0);
+        for (int chapter = 0; chapter < index.getChapterCount(); chapter++) {
+            int start = index.getChapterCharOffset(chapter);
+            if (start > boundaries.get(boundaries.size() - 1) && start < textLength) {
+                boundaries.add(start);
+            }
+        }
+        boundaries.add(textLength);
+        int[] starts = new int[boundaries.size() - 1];
+        int[] ends = new int[boundaries.size() - 1];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = boundaries.get(i);
+            ends[i] = boundaries.get(i + 1);
+        }
+        return build(matrix, starts, ends);
+    }
+
+    /**
+     * Slices the encounters of the matrix by windows of the text, each window characters long
+     * and each starting step characters after the one before. The last window ends at the end of the text.
+     * @param matrix
+     * @param textLength the length of the text the matrix was built from
+     * @param window
+     * @param step
+     * @return
+     */
+    public static DynamicNetwork byWindow(Matrix matrix, int textLength, int window, int step) {
+        if (window < 1 || step < 1) {
+            throw new IllegalArgumentException("Window and step must be positive: " + window + ", " + step);
+        }
+        int count = (textLength <= window) ? 1 : (textLength - window + step - 1) / step + 1;
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = i * step;
+            ends[i] = Math.min(starts[i] + window, textLength);
+        }
+        return build(matrix, starts, ends);
+    }
+
+    /**
+     * Tallies the slices in a single pass over the sorted encounters. Both the starts and the ends must not decrease.
+     * Encounters between characters that are no longer in the matrix, or no longer connected in it, are skipped.
+     */
+    private static DynamicNetwork build(Matrix matrix, int[] starts, int[] ends) {
+        String[] characters = matrix.getCharacters();
+        int[][] weights = matrix.getMatrix();
+        Map<String, Integer> indices = new HashMap<>();
+        for (int i = 0; i < characters.length; i++) {
+            indices.put(characters[i], i);
+        }
+        List<Encounter> encounters = matrix.getEncounterList();
+        int[] keys = new int[encounters.size()];
+        for (int e = 0; e < keys.length; e++) {
+            Encounter encounter = encounters.get(e);
+            Integer index1 = indices.get(encounter.character1);
+            Integer index2 = indices.get(encounter.character2);
+            keys[e] = (index1 == null || index2 == null || weights[index1][index2] == 0)
+                    ? -1 : Math.min(index1, index2) * characters.length + Math.max(index1, index2);
+        }
+
+        int[][] sources = new int[starts.length][];
+        int[][] targets = new int[starts.length][];
+        int[][] changes = new int[starts.length][];
+        boolean[] counted = new boolean[keys.length];
+        int added = 0;
+        int removed = 0;
+        for (int s = 0; s < starts.length; s++) {
+            if (s > 0 && (starts[s] < starts[s - 1] || ends[s] < ends[s - 1])) {
+                throw new IllegalArgumentException("Slices must be in order of the text");
+            }
+            // the change to each edge, sorted so the deltas are in a stable order
+            Map<Integer, Integer> delta = new TreeMap<>();
+            while (added < keys.length && encounters.get(added).position < ends[s]) {
+                if (encounters.get(added).position >= starts[s]) {
+                    change(delta, keys[added], 1);
+                    counted[added] = true;
+                }
+                added++;
+            }
+            while (removed < added && encounters.get(removed).position < starts[s]) {
+                // encounters that fell between two windows were never counted
+                if (counted[removed]) {
+                    change(delta, keys[removed], -1);
+                }
+                removed++;
+            }
+            List<Map.Entry<Integer, Integer>> edges = new ArrayList<>();
+            for (Map.Entry<Integer, Integer> entry : delta.entrySet()) {
+                if (entry.getValue() != 0) {
+                    edges.add(entry);
+                }
+            }
+            sources[s] = new int[edges.size()];
+            targets[s] = new int[edges.size()];
+            changes[s] = new int[edges.size()];
+            for (int e = 0; e < edges.size(); e++) {
+                sources[s][e] = edges.get(e).getKey() / characters.length;
+                targets[s][e] = edges.get(e).getKey() % characters.length;
+                changes[s][e] = edges.get(e).getValue();
+            }
+        }
+        return new DynamicNetwork(characters, starts, ends, sources, targets, changes);
+    }
+
+    private static void change(Map<Integer, Integer> delta, int key, int change) {
+        if (key >= 0) {
+            Integer old = delta.get(key);
+            delta.put(key, (old == null) ? change : old + change);
+        }
+    }
+
+    public String[] getCharacters() {
+        return characters;
+    }
+
+    /**
+     * Returns the number of slices
+     * @return
+     */
+    public int size() {
+        return starts.length;
+    }
+
+    public int getStart(int slice) {
+        return starts[slice];
+    }
+
+    public int getEnd(int slice) {
+        return ends[slice];
+    }
+
+    /**
+     * Returns the number of edges whose weights change going into the slice
+     * @param slice
+     * @return
+     */
+    public int getChangeCount(int slice) {
+        return changes[slice].length;
+    }
+
+    /**
+     * Returns the matrix of the slice, by applying the changes of every slice up to it
+     * @param slice
+     * @return
+     */
+    public Matrix getMatrix(int slice) {
+        int[][] matrix = new int[characters.length][characters.length];
+        for (int s = 0; s <= slice; s++) {
+            for (int e = 0; e < changes[s].length; e++) {
+                matrix[sources[s][e]][targets[s][e]] += changes[s][e];
+                matrix[targets[s][e]][sources[s][e]] += changes[s][e];
+            }
+        }
+        return new Matrix(characters, matrix);
+    }
+
+    /**
+     * Converts the slices to CSV lines of their changes.
+     * The header is "Slice,Start,End,Source,Target,Change", and there is one line per changed edge.
+     * @return
+     */
+    public Logger toDeltaCsvLog() {
+        Logger logger = new Logger();
+        logger.log("Slice,Start,End,Source,Target,Change");
+        for (int s = 0; s < size(); s++) {
+            for (int e = 0; e < changes[s].length; e++) {
+                logger.log(s + "," + starts[s] + "," + ends[s] + ",\"" + characters[sources[s][e]] + "\",\""
+                        + characters[targets[s][e]] + "\"," + changes[s][e]);
+            }
+        }
+        return logger;
+    }
+}
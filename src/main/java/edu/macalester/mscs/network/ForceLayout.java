@@ -0,0 +1,495 @@
+package edu.macalester.mscs.network;
+
+import edu.macalester.mscs.utils.FileUtils;
+import edu.macalester.mscs.utils.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Node positions for a character network, computed offline with a Fruchterman-Reingold force-directed layout.
+ *
+ * Every pair of characters repels and every edge attracts, and the layout cools over a fixed number of
+ * iterations. The repulsion is approximated with a Barnes-Hut quadtree: a cell that is far enough away,
+ * relative to its size, repels a character as a single body at its center of mass. This makes each
+ * iteration O(n log n) instead of O(n^2), and the repulsion on each character is computed in parallel.
+ * Like JUNG's FRLayout, the layout ignores the edge weights.
+ *
+ * The layout only depends on the network and the parameters, since the starting positions are seeded
+ * from its hash. It can be cached in a CSV file next to the network snapshot: the first line is the hash,
+ * and each other line is a character and its position. The viewer and the exporters can then load the
+ * positions instead of relaxing the layout every time.
+ */
+public class ForceLayout {
+
+    public static final int DEFAULT_ITERATIONS = 300;
+    public static final double DEFAULT_THETA = 0.8;
+    public static final double DEFAULT_SIZE = 1000;
+
+    // below this distance, bodies are treated as coincident
+    private static final double EPSILON = 1e-6;
+    // cells are not split below this depth, so coincident bodies cannot recurse forever
+    private static final int MAX_DEPTH = 32;
+
+    private final String[] characters;
+    private final double[] xs;
+    private final double[] ys;
+    private final long hash;
+
+    private ForceLayout(String[] characters, double[] xs, double[] ys, long hash) {
+        this.characters = characters;
+        this.xs = xs;
+        this.ys = ys;
+        this.hash = hash;
+    }
+
+    /**
+     * Computes the layout of the matrix with the default parameters
+     * @param matrix
+     * @return
+     */
+    public static ForceLayout compute(Matrix matrix) {
+        return compute(matrix.getCharacters(), matrix.getMatrix());
+    }
+
+    /**
+     * Computes the layout of the network with the default parameters
+     * @param characters
+     * @param matrix
+     * @return
+     */
+    public static ForceLayout compute(String[] characters, int[][] matrix) {
+        return compute(characters, matrix, DEFAULT_ITERATIONS, DEFAULT_THETA, DEFAULT_SIZE);
+    }
+
+    /**
+     * Computes the layout of the network within a square of the given size
+     * @param characters
+     * @param matrix
+     * @param iterations the number of iterations, over which the layout cools
+     * @param theta the Barnes-Hut opening ratio: 0 is exact, and larger values are faster and coarser
+     * @param size
+     * @return
+     */
+    public static ForceLayout compute(String[] characters, int[][] matrix, int iterations, double theta, double size) {
+        if (matrix.length != characters.length) {
+            throw new IllegalArgumentException("Matrix has " + matrix.length + " rows for " + characters.length + " characters");
+        }
+        long hash = hash(characters, matrix, iterations, theta, size);
+        int n = characters.length;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        Random random = new Random(hash);
+        for (int i = 0; i < n; i++) {
+            xs[i] = random.nextDouble() * size;
+            ys[i] = random.nextDouble() * size;
+        }
+        if (n > 1) {
+            new Relaxer(matrix, xs, ys, theta, size).relax(iterations);
+        }
+        return new ForceLayout(characters, xs, ys, hash);
+    }
+
+    /**
+     * Returns the layout of the network cached in layoutFile, or computes it with the default parameters
+     * and caches it there if the file is missing, cannot be read, or was computed for a different network.
+     * A file that cannot be read is logged.
+     * @param matrix
+     * @param layoutFile
+     * @param logger
+     * @return
+     */
+    public static ForceLayout load(Matrix matrix, String layoutFile, Logger logger) {
+        return load(matrix.getCharacters(), matrix.getMatrix(), layoutFile, logger);
+    }
+
+    /**
+     * Returns the layout of the network cached in layoutFile, or computes it with the default parameters
+     * and caches it there if the file is missing, cannot be read, or was computed for a different network.
+     * A file that cannot be read is logged.
+     * @param characters
+     * @param matrix
+     * @param layoutFile
+     * @param logger
+     * @return
+     */
+    public static ForceLayout load(String[] characters, int[][] matrix, String layoutFile, Logger logger) {
+        long hash = hash(characters, matrix, DEFAULT_ITERATIONS, DEFAULT_THETA, DEFAULT_SIZE);
+        if (new File(layoutFile).exists()) {
+            try {
+                ForceLayout cached = read(layoutFile);
+                // a truncated file can still have the right hash
+                if (cached.hash == hash && Arrays.equals(cached.characters, characters)) {
+                    return cached;
+                }
+            } catch (IllegalArgumentException | StringIndexOutOfBoundsException e) {
+                logger.log("Recomputing the layout, since " + layoutFile + " could not be read: " + e);
+            }
+        }
+        ForceLayout layout = compute(characters, matrix);
+        layout.toLayoutCsvLog().writeLog(layoutFile);
+        return layout;
+    }
+
+    /**
+     * Reads a layout written by toLayoutCsvLog()
+     * @param layoutFile
+     * @return
+     */
+    public static ForceLayout read(String layoutFile) {
+        List<String> lines = FileUtils.readFile(layoutFile);
+        if (lines.isEmpty() || !lines.get(0).startsWith("#")) {
+            throw new IllegalArgumentException("Not a layout file: " + layoutFile);
+        }
+        long hash = Long.parseUnsignedLong(lines.get(0).substring(1), 16);
+        int n = lines.size() - 1;
+        String[] characters = new String[n];
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            String line = lines.get(i + 1);
+            int second = line.lastIndexOf(',');
+            int first = line.lastIndexOf(',', second - 1);
+            characters[i] = line.substring(0, first);
+            xs[i] = Double.parseDouble(line.substring(first + 1, second));
+            ys[i] = Double.parseDouble(line.substring(second + 1));
+        }
+        return new ForceLayout(characters, xs, ys, hash);
+    }
+
+    /**
+     * Returns an FNV-1a hash of the network and the layout parameters
+     * @param characters
+     * @param matrix
+     * @param iterations
+     * @param theta
+     * @param size
+     * @return
+     */
+    public static long hash(String[] characters, int[][] matrix, int iterations, double theta, double size) {
+        long hash = 0xcbf29ce484222325L;
+        for (String character : characters) {
+            for (int i = 0; i < character.length(); i++) {
+                hash = (hash ^ character.charAt(i)) * 0x100000001b3L;
+            }
+            hash = (hash ^ ',') * 0x100000001b3L;
+        }
+        for (int[] row : matrix) {
+            for (int weight : row) {
+                hash = (hash ^ weight) * 0x100000001b3L;
+            }
+        }
+        hash = (hash ^ iterations) * 0x100000001b3L;
+        hash = (hash ^ Double.doubleToLongBits(theta)) * 0x100000001b3L;
+        hash = (hash ^ Double.doubleToLongBits(size)) * 0x100000001b3L;
+        return hash;
+    }
+
+    public String[] getCharacters() {
+        return characters;
+    }
+
+    public int size() {
+        return characters.length;
+    }
+
+    public double getX(int i) {
+        return xs[i];
+    }
+
+    public double getY(int i) {
+        return ys[i];
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Converts the layout to the lines of its cache file.
+     * The first line is '#' and the hash in hex, and then each line is "name,x,y".
+     * @return
+     */
+    public Logger toLayoutCsvLog() {
+        Logger logger = new Logger();
+        logger.log("#" + Long.toHexString(hash));
+        for (int i = 0; i < size(); i++) {
+            logger.log(characters[i] + "," + xs[i] + "," + ys[i]);
+        }
+        return logger;
+    }
+
+    /**
+     * Converts the layout to a JSON list of nodes with positions, in matrix order
+     * @return
+     */
+    public Logger toPositionJsonLog() {
+        Logger logger = new Logger();
+        logger.log("[");
+        for (int i = 0; i < size(); i++) {
+            String line = "{\"id\": \"" + characters[i] + "\", \"x\": " + xs[i] + ", \"y\": " + ys[i] + "}";
+            logger.log((i == size() - 1) ? line : line + ",");
+        }
+        logger.log("]");
+        return logger;
+    }
+
+    /**
+     * Converts the network to GEXF, with the layout positions, for import into Gephi
+     * @param matrix the matrix the layout was computed for
+     * @return
+     */
+    public Logger toGexfLog(int[][] matrix) {
+        if (matrix.length != size()) {
+            throw new IllegalArgumentException("Matrix has " + matrix.length + " rows for " + size() + " characters");
+        }
+        Logger logger = new Logger();
+        logger.log("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        logger.log("<gexf xmlns=\"http://www.gexf.net/1.2draft\" xmlns:viz=\"http://www.gexf.net/1.2draft/viz\" version=\"1.2\">");
+        logger.log("  <graph mode=\"static\" defaultedgetype=\"undirected\">");
+        logger.log("    <nodes>");
+        for (int i = 0; i < size(); i++) {
+            String name = escapeXml(characters[i]);
+            logger.log("      <node id=\"" + name + "\" label=\"" + name + "\">");
+            logger.log("        <viz:position x=\"" + xs[i] + "\" y=\"" + ys[i] + "\" z=\"0.0\"/>");
+            logger.log("      </node>");
+        }
+        logger.log("    </nodes>");
+        logger.log("    <edges>");
+        int id = 0;
+        for (int i = 0; i < size(); i++) {
+            for (int j = i + 1; j < size(); j++) {
+                if (matrix[i][j] > 0) {
+                    logger.log("      <edge id=\"" + id++ + "\" source=\"" + escapeXml(characters[i])
+                            + "\" target=\"" + escapeXml(characters[j]) + "\" weight=\"" + matrix[i][j] + "\"/>");
+                }
+            }
+        }
+        logger.log("    </edges>");
+        logger.log("  </graph>");
+        logger.log("</gexf>");
+        return logger;
+    }
+
+    private static String escapeXml(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Runs the force-directed iterations on a set of positions
+     */
+    private static class Relaxer {
+        private final int[] sources;
+        private final int[] targets;
+        private final double[] xs;
+        private final double[] ys;
+        private final double[] dxs;
+        private final double[] dys;
+        private final double theta;
+        private final double size;
+        // the ideal edge length
+        private final double k;
+
+        private Relaxer(int[][] matrix, double[] xs, double[] ys, double theta, double size) {
+            List<int[]> edges = new ArrayList<>();
+            for (int i = 0; i < matrix.length; i++) {
+                for (int j = i + 1; j < matrix.length; j++) {
+                    if (matrix[i][j] > 0) {
+                        edges.add(new int[] {i, j});
+                    }
+                }
+            }
+            this.sources = new int[edges.size()];
+            this.targets = new int[edges.size()];
+            for (int e = 0; e < edges.size(); e++) {
+                sources[e] = edges.get(e)[0];
+                targets[e] = edges.get(e)[1];
+            }
+            this.xs = xs;
+            this.ys = ys;
+            this.dxs = new double[xs.length];
+            this.dys = new double[xs.length];
+            this.theta = theta;
+            this.size = size;
+            this.k = Math.sqrt(size * size / xs.length);
+        }
+
+        private void relax(int iterations) {
+            int n = xs.length;
+            int threads = Math.max(1, Math.min(n / 64, Runtime.getRuntime().availableProcessors()));
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                double temperature = size / 10;
+                for (int iteration = 0; iteration < iterations; iteration++) {
+                    final Cell root = Cell.build(xs, ys);
+                    List<Future<?>> futures = new ArrayList<>();
+                    int chunk = (n + threads - 1) / threads;
+                    for (int start = 0; start < n; start += chunk) {
+                        final int from = start;
+                        final int to = Math.min(n, start + chunk);
+                        futures.add(executor.submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                for (int v = from; v < to; v++) {
+                                    dxs[v] = 0;
+                                    dys[v] = 0;
+                                    repel(root, v);
+                                }
+                            }
+                        }));
+                    }
+                    for (Future<?> future : futures) {
+                        future.get();
+                    }
+                    attract();
+                    move(temperature * (1 - (double) iteration / iterations));
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException("Error computing layout", e);
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        /**
+         * Adds the repulsion on v from every body in the cell, treating the cell as a single body if it is far enough away.
+         * A cell that contains v is never treated as a single body, since its center of mass includes v itself.
+         */
+        private void repel(Cell cell, int v) {
+            if (cell.mass == 0 || cell.body == v && cell.mass == 1) {
+                return;
+            }
+            double dx = xs[v] - cell.cx;
+            double dy = ys[v] - cell.cy;
+            double distance = Math.sqrt(dx * dx + dy * dy);
+            if (cell.children == null || cell.size < theta * distance && !cell.contains(xs[v], ys[v])) {
+                double mass = cell.mass;
+                if (distance < EPSILON) {
+                    if (cell.contains(xs[v], ys[v])) {
+                        // the other bodies in the cell coincide with v
+                        mass--;
+                    }
+                    // push coincident bodies apart in a direction that only depends on v
+                    dx = Math.cos(v);
+                    dy = Math.sin(v);
+                    distance = EPSILON;
+                } else {
+                    dx /= distance;
+                    dy /= distance;
+                }
+                double force = mass * k * k / distance;
+                dxs[v] += dx * force;
+                dys[v] += dy * force;
+            } else {
+                for (Cell child : cell.children) {
+                    if (child != null) {
+                        repel(child, v);
+                    }
+                }
+            }
+        }
+
+        private void attract() {
+            for (int e = 0; e < sources.length; e++) {
+                int u = sources[e];
+                int v = targets[e];
+                double dx = xs[u] - xs[v];
+                double dy = ys[u] - ys[v];
+                double distance = Math.max(EPSILON, Math.sqrt(dx * dx + dy * dy));
+                double force = distance / k;
+                dxs[u] -= dx * force;
+                dys[u] -= dy * force;
+                dxs[v] += dx * force;
+                dys[v] += dy * force;
+            }
+        }
+
+        /**
+         * Moves each body along its displacement, by at most the temperature, and keeps it within the square
+         */
+        private void move(double temperature) {
+            for (int v = 0; v < xs.length; v++) {
+                double length = Math.sqrt(dxs[v] * dxs[v] + dys[v] * dys[v]);
+                if (length > EPSILON) {
+                    double step = Math.min(length, temperature) / length;
+                    xs[v] = Math.min(size, Math.max(0, xs[v] + dxs[v] * step));
+                    ys[v] = Math.min(size, Math.max(0, ys[v] + dys[v] * step));
+                }
+            }
+        }
+    }
+
+    /**
+     * A square cell of the Barnes-Hut quadtree, with the number of bodies in it and their center of mass.
+     * A leaf holds at most one body, unless it is at the maximum depth.
+     */
+    private static class Cell {
+        private final double x;
+        private final double y;
+        private final double size;
+        private int mass = 0;
+        private double cx = 0;
+        private double cy = 0;
+        private int body = -1;
+        private Cell[] children = null;
+
+        private Cell(double x, double y, double size) {
+            this.x = x;
+            this.y = y;
+            this.size = size;
+        }
+
+        private static Cell build(double[] xs, double[] ys) {
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+            for (int v = 0; v < xs.length; v++) {
+                minX = Math.min(minX, xs[v]);
+                minY = Math.min(minY, ys[v]);
+                maxX = Math.max(maxX, xs[v]);
+                maxY = Math.max(maxY, ys[v]);
+            }
+            Cell root = new Cell(minX, minY, Math.max(EPSILON, Math.max(maxX - minX, maxY - minY)));
+            for (int v = 0; v < xs.length; v++) {
+                root.insert(v, xs, ys, 0);
+            }
+            return root;
+        }
+
+        private void insert(int v, double[] xs, double[] ys, int depth) {
+            cx = (cx * mass + xs[v]) / (mass + 1);
+            cy = (cy * mass + ys[v]) / (mass + 1);
+            mass++;
+            if (mass == 1) {
+                body = v;
+            } else if (children != null) {
+                child(v, xs, ys).insert(v, xs, ys, depth + 1);
+            } else if (depth < MAX_DEPTH) {
+                children = new Cell[4];
+                child(body, xs, ys).insert(body, xs, ys, depth + 1);
+                child(v, xs, ys).insert(v, xs, ys, depth + 1);
+                body = -1;
+            }
+            // otherwise the bodies coincide, and stay together in this leaf
+        }
+
+        private boolean contains(double px, double py) {
+            return px >= x && px <= x + size && py >= y && py <= y + size;
+        }
+
+        private Cell child(int v, double[] xs, double[] ys) {
+            double half = size / 2;
+            int quadrant = (xs[v] < x + half ? 0 : 1) + (ys[v] < y + half ? 0 : 2);
+            if (children[quadrant] == null) {
+                children[quadrant] = new Cell(x + (quadrant % 2) * half, y + (quadrant / 2) * half, half);
+            }
+            return children[quadrant];
+        }
+    }
+}
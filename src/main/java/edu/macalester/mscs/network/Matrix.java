@@ -2,7 +2,6 @@ package edu.macalester.mscs.network;
 
 import edu.macalester.mscs.utils.FileUtils;
 import edu.macalester.mscs.utils.Logger;
-import edu.macalester.mscs.utils.WordUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 
@@ -21,6 +20,11 @@ public class Matrix {
 
     private boolean isModifiable = true;
 
+    // the state of the last build, so that more text can be appended
+    private NameStream lastStream = null;
+    private FixedQueue<String> nameQueue = null;
+    private Queue<Name> backup = null;
+
     /**
      * Initializes an empty matrix
      * @param characters
@@ -42,6 +46,25 @@ public class Matrix {
         this(characters.toArray(new String[characters.size()]), nameIndices);
     }
 
+    /**
+     * Initializes a matrix with existing weights, such as a matrix read from a CSV file.
+     * Each character is its own only name.
+     * @param characters
+     * @param matrix
+     */
+    public Matrix(String[] characters, int[][] matrix) {
+        if (matrix.length != characters.length) {
+            throw new IllegalArgumentException("Matrix has " + matrix.length + " rows for " + characters.length + " characters");
+        }
+        this.characters = characters;
+        this.nameIndices = new HashMap<>();
+        for (int i = 0; i < characters.length; i++) {
+            nameIndices.put(characters[i], i);
+        }
+        this.matrix = matrix;
+        this.encounters = new ArrayList<>();
+    }
+
     /**
      * Initializes a matrix and calls build(text, radius)
      * @param characters
@@ -73,55 +96,70 @@ public class Matrix {
      * @param radius
      */
     public void build(String text, int radius) {
-        StringBuilder search = new StringBuilder();
-        FixedQueue<String> nameQueue = new FixedQueue<>(radius);
-        Queue<Name> backup = new LinkedList<>();
-
-        search.append(text.charAt(0));
-        for (int i = 1; i < text.length() - 1; i++) {
-            char c = text.charAt(i);
-            Name primary = new Name();
-            boolean wordEnd = !WordUtils.isWordCharacter(c) && WordUtils.isWordCharacter(text.charAt(i - 1));
-
-            if (i % 100000 == 0) {
-                System.out.println("Processing char " + i + " out of " + text.length());
-            }
+        build(NameStream.scan(text, radius, nameIndices.keySet()));
+    }
 
-            if (wordEnd) {
-                String context = search.toString();
-                for (String name : nameIndices.keySet()) {
-                    // check the ends with condition, and choose the longest option
-                    if (WordUtils.endsWithWord(context, name) && name.length() > primary.name.length()) {
-                        primary = new Name(name, i, context);
-                    }
-                }
-                // drain the backup queue into the name queue
-                // if backup.size() > 7, nothing is happening and it can be drained
-                if (primary.isValid() || backup.size() > 7) {
-                    while (!backup.isEmpty()) {
-                        Name last = backup.poll();
-                        // if last is valid, part of primary, and not primary, do NOT tally neighbors
-                        if (!last.isValid() || primary.name.contains(last.name) && !primary.name.equals(last.name)) {
-                            nameQueue.push("");
-                        } else { // else tally neighbors
-                            tallyNeighbors(last, nameQueue);
-                            nameQueue.push(last.name);
-                        }
+    /**
+     * Builds the matrix from the names already found in a text, using the radius they were found with.
+     * The stream must have been scanned or updated for exactly the names of this matrix.
+     * More text can then be appended.
+     *
+     * @param stream
+     */
+    public void build(NameStream stream) {
+        Set<String> names = new HashSet<>(nameIndices.keySet());
+        names.remove("");
+        if (!names.equals(stream.getNames())) {
+            throw new IllegalArgumentException("The name stream was not found for the names of this matrix");
+        }
+        nameQueue = new FixedQueue<>(stream.getRadius());
+        backup = new LinkedList<>();
+        tally(stream);
+    }
+
+    /**
+     * Continues building the matrix over text that follows the text it was last built or appended from,
+     * as if the two texts had been built together. Names found near the end of the earlier text, and still
+     * within the radius, are tallied with the names at the start of the new text.
+     *
+     * @param text
+     */
+    public void append(String text) {
+        if (lastStream == null) {
+            throw new IllegalStateException("This matrix has not been built from a text.");
+        }
+        if (!isModifiable) {
+            throw new IllegalStateException("This matrix has been cleaned and can no longer be modified.");
+        }
+        tally(lastStream.scanNext(text));
+    }
+
+    private void tally(NameStream stream) {
+        lastStream = stream;
+        for (int w = 0; w < stream.size(); w++) {
+            String name = stream.getName(w);
+            Name primary = (name == null) ? new Name() : new Name(name, stream.getPosition(w), stream.getContext(w));
+
+            // drain the backup queue into the name queue
+            // if backup.size() > 7, nothing is happening and it can be drained
+            if (primary.isValid() || backup.size() > 7) {
+                while (!backup.isEmpty()) {
+                    Name last = backup.poll();
+                    // if last is valid, part of primary, and not primary, do NOT tally neighbors
+                    if (!last.isValid() || primary.name.contains(last.name) && !primary.name.equals(last.name)) {
+                        nameQueue.push("");
+                    } else { // else tally neighbors
+                        tallyNeighbors(last, nameQueue);
+                        nameQueue.push(last.name);
                     }
                 }
-                // update the queues
-                // no need to add non-names to an empty backup
-                if (backup.isEmpty() && !primary.isValid()) {
-                    nameQueue.push("");
-                } else {
-                    backup.add(primary);
-                }
             }
-            // update the search string
-            search.append(c);
-            // cut the string to size
-            if (StringUtils.countMatches(search, ' ') > radius + 2) {
-                search = new StringBuilder(search.substring(search.indexOf(" ") + 1));
+            // update the queues
+            // no need to add non-names to an empty backup
+            if (backup.isEmpty() && !primary.isValid()) {
+                nameQueue.push("");
+            } else {
+                backup.add(primary);
             }
         }
     }
@@ -226,6 +264,77 @@ public class Matrix {
         }
     }
 
+    /**
+     * Returns a new matrix in which each character is replaced by the character it is an alias of,
+     * merging the rows and columns of characters with the same replacement. Characters that are not
+     * aliases keep their names, and the characters of the new matrix are in order of first appearance.
+     * Weights and encounters between two merged characters are dropped, so the diagonal stays 0.
+     *
+     * The aliases are only looked up once, so an alias of an alias is not followed. The new matrix is
+     * built in a single pass over this one, which is left unchanged. Its names index into the new matrix,
+     * so it can still be built further if this one could.
+     * @param aliases a map from each alias to its character
+     * @return
+     */
+    public Matrix collapse(Map<String, String> aliases) {
+        Map<String, Integer> targetIndices = new LinkedHashMap<>();
+        int[] targets = new int[size()];
+        for (int i = 0; i < size(); i++) {
+            targets[i] = getTargetIndex(characters[i], aliases, targetIndices, true);
+        }
+        String[] collapsedCharacters = targetIndices.keySet().toArray(new String[targetIndices.size()]);
+
+        Map<String, Integer> collapsedIndices = new HashMap<>();
+        if (isModifiable) {
+            for (Map.Entry<String, Integer> entry : nameIndices.entrySet()) {
+                collapsedIndices.put(entry.getKey(), targets[entry.getValue()]);
+            }
+        } else {
+            // rows have been removed, so the name indices are out of date
+            collapsedIndices.putAll(targetIndices);
+        }
+
+        Matrix collapsed = new Matrix(collapsedCharacters, collapsedIndices);
+        for (int i = 0; i < size(); i++) {
+            int[] row = matrix[i];
+            int[] collapsedRow = collapsed.matrix[targets[i]];
+            for (int j = 0; j < size(); j++) {
+                if (row[j] != 0 && targets[j] != targets[i]) {
+                    collapsedRow[targets[j]] += row[j];
+                }
+            }
+        }
+        for (Encounter encounter : encounters) {
+            int index1 = getTargetIndex(encounter.character1, aliases, targetIndices, false);
+            int index2 = getTargetIndex(encounter.character2, aliases, targetIndices, false);
+            // skip merged pairs, and characters that have been cleaned out
+            if (index1 != index2 && index1 >= 0 && index2 >= 0) {
+                collapsed.encounters.add(new Encounter(collapsedCharacters[index1], encounter.name1,
+                        collapsedCharacters[index2], encounter.name2, encounter.position, encounter.context));
+            }
+        }
+        collapsed.isModifiable = isModifiable;
+        return collapsed;
+    }
+
+    /**
+     * Returns the index of the character's replacement in targetIndices, adding it if it is new and add is true,
+     * or else returning -1
+     */
+    private static int getTargetIndex(String character, Map<String, String> aliases,
+                                      Map<String, Integer> targetIndices, boolean add) {
+        String target = aliases.containsKey(character) ? aliases.get(character) : character;
+        Integer index = targetIndices.get(target);
+        if (index == null) {
+            if (!add) {
+                return -1;
+            }
+            index = targetIndices.size();
+            targetIndices.put(target, index);
+        }
+        return index;
+    }
+
     /**
      * Removes any connections whose strength is below the specified noise threshold
      * Also removes any characters who have no connections
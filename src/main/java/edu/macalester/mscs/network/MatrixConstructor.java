@@ -3,6 +3,7 @@ package edu.macalester.mscs.network;
 import edu.macalester.mscs.utils.EntryComparator;
 import edu.macalester.mscs.utils.FileUtils;
 import edu.macalester.mscs.utils.Logger;
+import edu.macalester.mscs.utils.TextIndex;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -15,6 +16,7 @@ public class MatrixConstructor {
     public static final String DEFAULT_LOG_FOLDER = "src/main/resources/data/output";
 
 	private final String bookId;
+	private final String textFileName;
 	private final String text;
 	private List<String> fullCharacterList;
 	private Map<String, Integer> nameIndices;
@@ -33,7 +35,8 @@ public class MatrixConstructor {
 	 */
     public MatrixConstructor(String bookId, String textFileName, String characterFileName, int radius, int noise) {
 		this.bookId = bookId;
-		this.text = getText(textFileName);
+		this.textFileName = textFileName;
+		this.text = FileUtils.readText(textFileName);
 		makeCharacters(characterFileName);
 		this.radius = radius;
 		this.noise = noise;
@@ -91,13 +94,21 @@ public class MatrixConstructor {
 			for (String name : split) {
 				nameIndices.put(name, fullCharacterList.size());
 			}
-			c = split[0];
-			c = c.replaceAll(" [a-z]+ ", " "); // remove lowercase filler words
-			if (c.contains(" ")) {
-				c = c.substring(0, c.indexOf(' ') + 2);
-			}
-			fullCharacterList.add(c);
+			fullCharacterList.add(getCharacterName(split[0]));
+		}
+	}
+
+	/**
+	 * Returns the name of the character with the unique id from the first field of a line of the character list
+	 * @param key
+	 * @return
+	 */
+	public static String getCharacterName(String key) {
+		String c = key.replaceAll(" [a-z]+ ", " "); // remove lowercase filler words
+		if (c.contains(" ")) {
+			c = c.substring(0, c.indexOf(' ') + 2);
 		}
+		return c;
 	}
 
 	public int getRadius() {
@@ -158,7 +169,12 @@ public class MatrixConstructor {
 		logger.log("=============================================================");
 		logger.log();
 
-		matrix = new Matrix(fullCharacterList, nameIndices, text, radius);
+		// reuse the names found in the last run, rescanning only for names added to or removed from the list
+		NameStream stream = NameStream.load(text, radius, nameIndices.keySet(),
+				getFileName(logFolder, "names", fileDescriptor, "csv"), logger);
+		logger.log();
+		matrix = new Matrix(fullCharacterList, nameIndices);
+		matrix.build(stream);
 
 		logger.log(matrix.getEncounterList());
 		logger.log();
@@ -188,6 +204,9 @@ public class MatrixConstructor {
 	 *  - edge file
 	 *  - total encounter list
 	 *  - encounter lists by character
+	 *  - layout cache, node positions JSON file and GEXF file
+	 *  - changes to the network from chapter to chapter, adding up to the cleaned matrix,
+	 *    or from window to window of the text if it has no chapter headings
 	 * The files will be descriptively named and placed within parentFolder,
 	 * with the encounter files placed in their own subdirectory.
 	 * @param logFolder
@@ -226,6 +245,14 @@ public class MatrixConstructor {
 		// write matrix JSON file
         matrix.toMatrixJsonLog(getOrderedCharacters()).writeLog(getFileName(logFolder, "mat",  fileDescriptor, "json"));
 
+		// write layout files, reusing the cached layout if the matrix has not changed
+		ForceLayout layout = ForceLayout.load(matrix, getFileName(logFolder, "layout",  fileDescriptor, "csv"), new Logger(true));
+		layout.toPositionJsonLog().writeLog(getFileName(logFolder, "pos",  fileDescriptor, "json"));
+		layout.toGexfLog(matrix.getMatrix()).writeLog(getFileName(logFolder, "graph",  fileDescriptor, "gexf"));
+
+		// write the chapter by chapter changes, from the encounters of the characters that were kept
+		TextIndex index = TextIndex.build(textFileName, TextIndex.DEFAULT_CHAPTER_PATTERN);
+		DynamicNetwork.byChapterOrWindow(matrix, index, text.length()).toDeltaCsvLog().writeLog(getFileName(logFolder, "dynamic",  fileDescriptor, "csv"));
 
 	}
 
@@ -280,19 +307,4 @@ public class MatrixConstructor {
 		return parentFolder + "/" + getBookId() + "-" + type + descriptor + extension;
 	}
 
-	/**
-	 * This method reads in a massive text file and combines it into a single string,
-	 * with line breaks replaced by spaces.
-	 * @param file
-	 * @return
-	 */
-	private static String getText(String file) {
-		List<String> lines = FileUtils.readFile(file);
-		StringBuilder sb = new StringBuilder();
-		for (String line : lines) {
-			sb.append(line).append(" ");
-		}
-		return sb.toString().trim();
-	}
-
 }
@@ -0,0 +1,352 @@
+package edu.macalester.mscs.network;
+
+import edu.macalester.mscs.utils.FileUtils;
+import edu.macalester.mscs.utils.Logger;
+import edu.macalester.mscs.utils.MultiPatternMatcher;
+import edu.macalester.mscs.utils.WordUtils;
+
+import java.io.File;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * The names that Matrix.build finds in a text: at every word end, the longest name that ends there, if any.
+ *
+ * Finding the names is the slow part of building a matrix, and it only depends on the text, the radius and
+ * the set of names, not on which character each name belongs to. Matrix.build(NameStream) tallies the
+ * encounters from the stream, so a matrix can be rebuilt for a new character list without rescanning the
+ * text. When names are added to or removed from the list, update() only rescans for the changed names:
+ * the text is searched once for the added names, and only the word ends where a removed name was found are
+ * checked against every name. Names that move to another character need no rescanning at all.
+ * A text that grows can also be scanned a piece at a time, with scanNext().
+ *
+ * The stream can be cached in a CSV file next to the output: the first line is a hash of the text and
+ * the radius, then each name that was searched for, in quotes, and then the position and name of each
+ * word end where a name was found.
+ */
+public class NameStream {
+
+    private static final Pattern REGEX_CHARACTERS = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}]");
+
+    private final String text;
+    // the position of the text in the whole text, if it continues an earlier stream
+    private final int offset;
+    private final int radius;
+    // the position of every word end, and where the text that Matrix.build searched at each one starts
+    private final int[] wordEnds;
+    private final int[] contextStarts;
+    private final String[] names;
+    private final Set<String> searchedNames = new HashSet<>();
+    // where the text that a continuation will search at the last character starts
+    private final int tailStart;
+
+    private NameStream(String text, int offset, int first, int radius) {
+        this.text = text;
+        this.offset = offset;
+        this.radius = radius;
+        List<Integer> ends = new ArrayList<>();
+        List<Integer> starts = new ArrayList<>();
+        // Matrix.build only searches the text after the last radius + 3 spaces
+        Deque<Integer> spaces = new ArrayDeque<>();
+        for (int i = 0; i < text.length() - 1; i++) {
+            if (i >= first && i > 0 && !WordUtils.isWordCharacter(text.charAt(i)) && WordUtils.isWordCharacter(text.charAt(i - 1))) {
+                ends.add(i);
+                starts.add((spaces.size() < radius + 3) ? 0 : spaces.peekFirst() + 1);
+            }
+            if (text.charAt(i) == ' ') {
+                spaces.addLast(i);
+                if (spaces.size() > radius + 3) {
+                    spaces.pollFirst();
+                }
+            }
+        }
+        tailStart = (spaces.size() < radius + 3) ? 0 : spaces.peekFirst() + 1;
+        wordEnds = new int[ends.size()];
+        contextStarts = new int[ends.size()];
+        for (int w = 0; w < wordEnds.length; w++) {
+            wordEnds[w] = ends.get(w);
+            contextStarts[w] = starts.get(w);
+        }
+        names = new String[wordEnds.length];
+    }
+
+    /**
+     * Finds the longest of the names at every word end of the text
+     * @param text
+     * @param radius
+     * @param names
+     * @return
+     */
+    public static NameStream scan(String text, int radius, Collection<String> names) {
+        NameStream stream = new NameStream(text, 0, 1, radius);
+        stream.update(names);
+        return stream;
+    }
+
+    /**
+     * Finds the same names in text that follows the text of this stream. Like Matrix.build, this stream stopped
+     * before the last character of its text, so the new stream starts there, searching the end of this text
+     * as the beginning of the next. Its positions are in the whole text.
+     * @param nextText
+     * @return
+     */
+    public NameStream scanNext(String nextText) {
+        String tail = text.substring(tailStart);
+        NameStream stream = new NameStream(tail + nextText, offset + tailStart, tail.length() - 1, radius);
+        stream.update(searchedNames);
+        return stream;
+    }
+
+    /**
+     * Returns the stream of the names in the text cached in streamFile, updated for any names that were added or removed,
+     * or scans the text if the file is missing, cannot be read, or was made for a different text or radius. Either way, the stream is
+     * then cached in streamFile. The changes are logged.
+     * @param text
+     * @param radius
+     * @param names
+     * @param streamFile
+     * @param logger
+     * @return
+     */
+    public static NameStream load(String text, int radius, Collection<String> names, String streamFile, Logger logger) {
+        NameStream stream = null;
+        if (new File(streamFile).exists()) {
+            try {
+                stream = read(text, radius, streamFile);
+            } catch (IllegalArgumentException | StringIndexOutOfBoundsException e) {
+                logger.log("Rescanning the text, since " + streamFile + " could not be read: " + e);
+            }
+        }
+        if (stream == null) {
+            logger.log("Scanning the text for " + names.size() + " names");
+            stream = scan(text, radius, names);
+        } else {
+            logger.log("Updating the names cached in " + streamFile);
+            logger.append(stream.update(names));
+        }
+        stream.toStreamCsvLog().writeLog(streamFile);
+        return stream;
+    }
+
+    /**
+     * Reads a stream written by toStreamCsvLog(), or returns null if it was made for a different text or radius
+     * @param text
+     * @param radius
+     * @param streamFile
+     * @return
+     */
+    public static NameStream read(String text, int radius, String streamFile) {
+        List<String> lines = FileUtils.readFile(streamFile);
+        if (lines.isEmpty() || !lines.get(0).startsWith("#")) {
+            throw new IllegalArgumentException("Not a name stream file: " + streamFile);
+        }
+        if (Long.parseUnsignedLong(lines.get(0).substring(1), 16) != hash(text, radius)) {
+            return null;
+        }
+        NameStream stream = new NameStream(text, 0, 1, radius);
+        for (int i = 1; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.startsWith("\"")) {
+                stream.searchedNames.add(line.substring(1, line.length() - 1));
+            } else {
+                int comma = line.indexOf(',');
+                int w = Arrays.binarySearch(stream.wordEnds, Integer.parseInt(line.substring(0, comma)));
+                if (w < 0) {
+                    throw new IllegalArgumentException("Not a word end in " + streamFile + ": " + line);
+                }
+                stream.names[w] = line.substring(comma + 2, line.length() - 1);
+            }
+        }
+        return stream;
+    }
+
+    /**
+     * Updates the stream for a new set of names, only rescanning the text for the names that were added or removed
+     * @param newNames
+     * @return a log of the changes
+     */
+    public Logger update(Collection<String> newNames) {
+        Set<String> current = new HashSet<>();
+        for (String name : newNames) {
+            // an empty name never matches at a word end
+            if (!name.isEmpty()) {
+                current.add(name);
+            }
+        }
+        Set<String> removed = new TreeSet<>(searchedNames);
+        removed.removeAll(current);
+        Set<String> added = new TreeSet<>(current);
+        added.removeAll(searchedNames);
+        searchedNames.clear();
+        searchedNames.addAll(current);
+
+        Logger logger = new Logger();
+        int rescanned = 0;
+        if (!removed.isEmpty()) {
+            logger.log("Removed names: " + removed);
+            for (int w = 0; w < wordEnds.length; w++) {
+                if (names[w] != null && removed.contains(names[w])) {
+                    names[w] = null;
+                    for (String name : current) {
+                        if (matches(w, name)) {
+                            choose(w, name);
+                        }
+                    }
+                    rescanned++;
+                }
+            }
+        }
+        if (!added.isEmpty()) {
+            logger.log("Added names: " + added);
+            rescanned += find(added);
+        }
+        logger.log("Names found: " + rescanned + " word ends changed or rescanned out of " + wordEnds.length);
+        return logger;
+    }
+
+    /**
+     * Finds the names at every word end, where they are longer than the name already there.
+     * The names without regular expression characters are found with a single pass over the text.
+     */
+    private int find(Collection<String> added) {
+        int found = 0;
+        MultiPatternMatcher<String> matcher = new MultiPatternMatcher<>();
+        List<String> patterns = new ArrayList<>();
+        for (String name : added) {
+            if (REGEX_CHARACTERS.matcher(name).find()) {
+                patterns.add(name);
+            } else {
+                matcher.add(name, name);
+            }
+        }
+        for (MultiPatternMatcher.Match<String> match : matcher.findMatches(text)) {
+            int w = Arrays.binarySearch(wordEnds, match.getEnd());
+            if (w >= 0 && matches(w, match.getValue()) && choose(w, match.getValue())) {
+                found++;
+            }
+        }
+        for (String name : patterns) {
+            Pattern pattern = Pattern.compile("(.*\\W)?" + name);
+            for (int w = 0; w < wordEnds.length; w++) {
+                if (pattern.matcher(getContext(w)).matches() && choose(w, name)) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    private boolean choose(int w, String name) {
+        if (names[w] == null || name.length() > names[w].length()) {
+            names[w] = name;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the name is found at the word end, as WordUtils.endsWithWord finds it in the searched text
+     */
+    private boolean matches(int w, String name) {
+        if (REGEX_CHARACTERS.matcher(name).find()) {
+            return WordUtils.endsWithWord(getContext(w), name);
+        }
+        int start = wordEnds[w] - name.length();
+        if (start < contextStarts[w] || !text.startsWith(name, start)) {
+            return false;
+        }
+        if (start == contextStarts[w]) {
+            return true;
+        }
+        char c = text.charAt(start - 1);
+        if (Character.isLetterOrDigit(c) && c < 128 || c == '_') {
+            return false;
+        }
+        // '.' does not match line terminators
+        for (int i = contextStarts[w]; i < start - 1; i++) {
+            c = text.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an FNV-1a hash of the text and the radius
+     * @param text
+     * @param radius
+     * @return
+     */
+    public static long hash(String text, int radius) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ radius) * 0x100000001b3L;
+        return hash;
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * Returns the names that were searched for
+     * @return
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(searchedNames);
+    }
+
+    /**
+     * Returns the number of word ends
+     * @return
+     */
+    public int size() {
+        return wordEnds.length;
+    }
+
+    public int getPosition(int wordEnd) {
+        return offset + wordEnds[wordEnd];
+    }
+
+    /**
+     * Returns the longest name found at the word end, or null if there is none
+     * @param wordEnd
+     * @return
+     */
+    public String getName(int wordEnd) {
+        return names[wordEnd];
+    }
+
+    /**
+     * Returns the text that Matrix.build searched for names at the word end
+     * @param wordEnd
+     * @return
+     */
+    public String getContext(int wordEnd) {
+        return text.substring(contextStarts[wordEnd], wordEnds[wordEnd]);
+    }
+
+    /**
+     * Converts the stream of a whole text to CSV lines, to be read by read()
+     * @return
+     */
+    public Logger toStreamCsvLog() {
+        if (offset != 0) {
+            throw new IllegalStateException("Only the stream of a whole text can be cached");
+        }
+        Logger logger = new Logger();
+        logger.log("#" + Long.toHexString(hash(text, radius)));
+        for (String name : new TreeSet<>(searchedNames)) {
+            logger.log("\"" + name + "\"");
+        }
+        for (int w = 0; w < wordEnds.length; w++) {
+            if (names[w] != null) {
+                logger.log(wordEnds[w] + ",\"" + names[w] + "\"");
+            }
+        }
+        return logger;
+    }
+}
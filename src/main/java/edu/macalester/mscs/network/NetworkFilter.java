@@ -0,0 +1,278 @@
+package edu.macalester.mscs.network;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Removes characters from existing encounter lists and edge lists, without rebuilding the network.
+ *
+ * A filter either excludes a set of characters, or includes only a set of characters, and drops every
+ * line whose first two fields are not both accepted. The first field of each line names one character
+ * and the second names the other, as in the encounter files ("Character (name)"), the edge files
+ * ("Source","Target") and the older logs (plain names), so all three can be filtered. Header lines
+ * ("Source,Target..." and "char 1...") and lines whose first or second field is blank are kept.
+ *
+ * Files are streamed line by line, and several files are filtered in parallel. Filtering also tallies
+ * the reduced network from the kept lines it recognizes:
+ *     edges after a "Source,Target" header count their weight, if the header has one, or else 1,
+ *     encounters count 1: lines of "Character (name)" pairs and a position, as in the encounter files,
+ *     or lines of two names and three numbers (positions and distance), as in the older logs.
+ * Other lines are filtered but not tallied, such as the removed edges, matrices and notes of the older logs.
+ * A filter can also stop at a marker line, copying it and the rest of each file unchanged.
+ * The tallies of all the files can be returned as a Matrix, so the reduced matrix does not need to be
+ * rebuilt from the text.
+ */
+public class NetworkFilter {
+
+    private final Set<String> characters;
+    private final boolean exclude;
+    // the start of the line after which nothing is filtered, or null to filter every line
+    private final String endMarker;
+
+    private NetworkFilter(Collection<String> characters, boolean exclude, String endMarker) {
+        this.characters = new HashSet<>();
+        for (String character : characters) {
+            this.characters.add(character.trim());
+        }
+        this.exclude = exclude;
+        this.endMarker = endMarker;
+    }
+
+    /**
+     * Returns a filter that drops every line involving any of the characters
+     * @param characters
+     * @return
+     */
+    public static NetworkFilter excluding(Collection<String> characters) {
+        return new NetworkFilter(characters, true, null);
+    }
+
+    /**
+     * Returns a filter that only keeps lines between two of the characters
+     * @param characters
+     * @return
+     */
+    public static NetworkFilter including(Collection<String> characters) {
+        return new NetworkFilter(characters, false, null);
+    }
+
+    /**
+     * Returns a copy of this filter that stops at the first line starting with the marker,
+     * copying that line and every line after it unchanged, without tallying them
+     * @param endMarker
+     * @return
+     */
+    public NetworkFilter until(String endMarker) {
+        return new NetworkFilter(characters, exclude, endMarker);
+    }
+
+    public boolean accepts(String character) {
+        return characters.contains(character) != exclude;
+    }
+
+    /**
+     * Filters a single file, and returns the reduced network
+     * @param inputFile
+     * @param outputFile the file to write the kept lines to, or null to only tally them
+     * @return
+     */
+    public Matrix filterFile(String inputFile, String outputFile) {
+        Map<String, String> files = new LinkedHashMap<>();
+        files.put(inputFile, outputFile);
+        return filterFiles(files);
+    }
+
+    /**
+     * Filters each input file into its output file in parallel, and returns the reduced network of all the
+     * kept lines. The characters of the matrix are in order of first appearance, in the order of the files.
+     * @param files a map from each input file to its output file, or to null to only tally it
+     * @return
+     */
+    public Matrix filterFiles(Map<String, String> files) {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(files.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+            List<Future<Tally>> futures = new ArrayList<>();
+            for (final Map.Entry<String, String> entry : files.entrySet()) {
+                futures.add(executor.submit(new Callable<Tally>() {
+                    @Override
+                    public Tally call() {
+                        return filter(entry.getKey(), entry.getValue());
+                    }
+                }));
+            }
+            Tally total = new Tally();
+            for (Future<Tally> future : futures) {
+                total.addAll(future.get());
+            }
+            return total.toMatrix();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error filtering files", e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private Tally filter(String inputFile, String outputFile) {
+        Tally tally = new Tally();
+        int kept = 0;
+        int removed = 0;
+        String line = null;
+        try (BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+             Writer writer = (outputFile == null) ? null : new BufferedWriter(new FileWriter(outputFile))) {
+            boolean edges = false;
+            boolean weighted = false;
+            boolean done = false;
+            while ((line = reader.readLine()) != null) {
+                boolean keep = true;
+                if (done || endMarker != null && line.startsWith(endMarker)) {
+                    done = true;
+                } else if (line.startsWith("Source,Target")) {
+                    edges = true;
+                    weighted = line.startsWith("Source,Target,Weight");
+                } else if (!line.startsWith("char 1")) {
+                    String[] fields = line.split(",", 6);
+                    if (fields.length > 1 && !fields[0].trim().isEmpty() && !fields[1].trim().isEmpty()) {
+                        String character1 = getCharacter(fields[0]);
+                        String character2 = getCharacter(fields[1]);
+                        keep = accepts(character1) && accepts(character2);
+                        if (keep) {
+                            if (edges) {
+                                int weight = (weighted && fields.length > 2) ? (int) Double.parseDouble(fields[2]) : 1;
+                                tally.add(character1, character2, weight);
+                            } else if (isEncounter(fields)) {
+                                tally.add(character1, character2, 1);
+                            }
+                        }
+                    }
+                }
+                if (keep) {
+                    kept++;
+                    if (writer != null) {
+                        writer.write(line);
+                        writer.write('\n');
+                    }
+                } else {
+                    removed++;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            throw new RuntimeException("Error filtering " + inputFile + " at '" + line + "'", e);
+        }
+        System.out.println("Filtered " + inputFile + ": kept " + kept + " lines, removed " + removed);
+        return tally;
+    }
+
+    /**
+     * Returns true if the fields are those of an encounter file, "Character (name)" twice and a position,
+     * or those of an encounter in the older logs, two names and three numbers
+     */
+    private static boolean isEncounter(String[] fields) {
+        if (fields.length < 3 || !isNumber(fields[2]) || !hasLetter(fields[0]) || !hasLetter(fields[1])) {
+            return false;
+        }
+        if (fields[0].trim().endsWith(")") && fields[1].trim().endsWith(")")) {
+            return true;
+        }
+        return fields.length > 4 && isNumber(fields[3]) && isNumber(fields[4]);
+    }
+
+    private static boolean isNumber(String field) {
+        String number = field.trim();
+        if (number.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < number.length(); i++) {
+            if (!Character.isDigit(number.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasLetter(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            if (Character.isLetter(field.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the character named by a field, without quotes or the name in parentheses that follows it in encounter lists
+     * @param field
+     * @return
+     */
+    public static String getCharacter(String field) {
+        String character = field.trim();
+        if (character.length() > 1 && character.startsWith("\"") && character.endsWith("\"")) {
+            character = character.substring(1, character.length() - 1);
+        }
+        int name = character.lastIndexOf(" (");
+        if (name > 0 && character.endsWith(")")) {
+            character = character.substring(0, name);
+        }
+        return character;
+    }
+
+    /**
+     * The weights between characters in the kept lines of a file
+     */
+    private static class Tally {
+        private final Map<String, Integer> indices = new LinkedHashMap<>();
+        private final List<Map<Integer, Integer>> weights = new ArrayList<>();
+
+        private int index(String character) {
+            Integer index = indices.get(character);
+            if (index == null) {
+                index = indices.size();
+                indices.put(character, index);
+                weights.add(new HashMap<Integer, Integer>());
+            }
+            return index;
+        }
+
+        private void add(String character1, String character2, int weight) {
+            int index1 = index(character1);
+            int index2 = index(character2);
+            if (index1 != index2) {
+                add(index1, index2, weight);
+                add(index2, index1, weight);
+            }
+        }
+
+        private void add(int index1, int index2, int weight) {
+            Integer old = weights.get(index1).get(index2);
+            weights.get(index1).put(index2, (old == null) ? weight : old + weight);
+        }
+
+        private void addAll(Tally tally) {
+            String[] characters = tally.indices.keySet().toArray(new String[tally.indices.size()]);
+            int[] remapped = new int[characters.length];
+            for (int i = 0; i < characters.length; i++) {
+                remapped[i] = index(characters[i]);
+            }
+            for (int i = 0; i < characters.length; i++) {
+                for (Map.Entry<Integer, Integer> entry : tally.weights.get(i).entrySet()) {
+                    add(remapped[i], remapped[entry.getKey()], entry.getValue());
+                }
+            }
+        }
+
+        private Matrix toMatrix() {
+            int[][] matrix = new int[indices.size()][indices.size()];
+            for (int i = 0; i < matrix.length; i++) {
+                for (Map.Entry<Integer, Integer> entry : weights.get(i).entrySet()) {
+                    matrix[i][entry.getKey()] = entry.getValue();
+                }
+            }
+            return new Matrix(indices.keySet().toArray(new String[indices.size()]), matrix);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package edu.macalester.mscs.network;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * A power-iteration kernel for PageRank and eigenvector centrality over the adjacency of a Matrix.
+ *
+ * The matrix is copied once into primitive compressed-row arrays, and each iteration updates
+ * every row independently (in parallel for large networks). Iteration stops when the L1 change
+ * between successive vectors drops below the tolerance, or after the maximum number of iterations.
+ *
+ * Both computations can warm-start from a previous Result, matched up by character name. This is
+ * useful when recomputing centralities for many variants of the same network (different noise
+ * thresholds, different books), since neighboring variants usually converge in a few iterations.
+ */
+public class PowerIteration {
+
+    public static final double DEFAULT_DAMPING = 0.85;
+    public static final double DEFAULT_TOLERANCE = 1e-9;
+    public static final int DEFAULT_MAX_ITERATIONS = 1000;
+
+    /**
+     * Networks with fewer rows than this are iterated on a single thread
+     */
+    public static final int PARALLEL_THRESHOLD = 512;
+
+    private final String[] characters;
+    private final int[] rowStarts;
+    private final int[] columns;
+    private final double[] weights;
+    private final double[] rowSums;
+
+    private double damping = DEFAULT_DAMPING;
+    private double tolerance = DEFAULT_TOLERANCE;
+    private int maxIterations = DEFAULT_MAX_ITERATIONS;
+
+    public PowerIteration(Matrix matrix) {
+        this(matrix.getCharacters(), matrix.getMatrix(), true);
+    }
+
+    /**
+     * @param matrix
+     * @param weighted if false, every edge has weight 1
+     */
+    public PowerIteration(Matrix matrix, boolean weighted) {
+        this(matrix.getCharacters(), matrix.getMatrix(), weighted);
+    }
+
+    public PowerIteration(String[] characters, int[][] adjacency, boolean weighted) {
+        int n = adjacency.length;
+        this.characters = characters;
+        this.rowStarts = new int[n + 1];
+        this.rowSums = new double[n];
+        int edges = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i != j && adjacency[i][j] > 0) {
+                    edges++;
+                }
+            }
+        }
+        this.columns = new int[edges];
+        this.weights = new double[edges];
+        int e = 0;
+        for (int i = 0; i < n; i++) {
+            rowStarts[i] = e;
+            for (int j = 0; j < n; j++) {
+                if (i != j && adjacency[i][j] > 0) {
+                    columns[e] = j;
+                    weights[e] = weighted ? adjacency[i][j] : 1.0;
+                    rowSums[i] += weights[e];
+                    e++;
+                }
+            }
+        }
+        rowStarts[n] = e;
+    }
+
+    public int size() {
+        return rowSums.length;
+    }
+
+    public String[] getCharacters() {
+        return characters;
+    }
+
+    public double getDamping() {
+        return damping;
+    }
+
+    public void setDamping(double damping) {
+        if (damping < 0 || damping > 1) {
+            throw new IllegalArgumentException("Damping must be between 0 and 1: " + damping);
+        }
+        this.damping = damping;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Computes PageRank from a uniform starting vector
+     * @return
+     */
+    public Result pageRank() {
+        return pageRank((Result) null);
+    }
+
+    /**
+     * Computes PageRank, starting from the values of a previous result.
+     * Characters missing from the previous result start at the mean of its values.
+     * @param previous may be null
+     * @return
+     */
+    public Result pageRank(Result previous) {
+        return pageRank(getStart(previous));
+    }
+
+    /**
+     * Computes PageRank from the given starting vector, which is normalized to sum to 1.
+     * The rank of a character with no connections is spread evenly over the whole network.
+     * @param start
+     * @return
+     */
+    public Result pageRank(double[] start) {
+        final int n = size();
+        double[] current = normalize(Arrays.copyOf(start, n), false);
+        final double[] contributions = new double[n];
+        List<Double> residuals = new ArrayList<>();
+        while (residuals.size() < maxIterations) {
+            double dangling = 0;
+            for (int j = 0; j < n; j++) {
+                if (rowSums[j] > 0) {
+                    contributions[j] = current[j] / rowSums[j];
+                } else {
+                    contributions[j] = 0;
+                    dangling += current[j];
+                }
+            }
+            final double base = (1 - damping) / n + damping * dangling / n;
+            final double[] next = new double[n];
+            forEachRow(new IntConsumer() {
+                @Override
+                public void accept(int i) {
+                    double sum = 0;
+                    for (int e = rowStarts[i]; e < rowStarts[i + 1]; e++) {
+                        sum += weights[e] * contributions[columns[e]];
+                    }
+                    next[i] = base + damping * sum;
+                }
+            });
+            double residual = l1Distance(current, next);
+            residuals.add(residual);
+            current = next;
+            if (residual < tolerance) {
+                break;
+            }
+        }
+        return new Result(characters, current, residuals, tolerance);
+    }
+
+    /**
+     * Computes eigenvector centrality from a uniform starting vector
+     * @return
+     */
+    public Result eigenvector() {
+        return eigenvector((Result) null);
+    }
+
+    /**
+     * Computes eigenvector centrality, starting from the values of a previous result.
+     * Characters missing from the previous result start at the mean of its values.
+     * @param previous may be null
+     * @return
+     */
+    public Result eigenvector(Result previous) {
+        return eigenvector(getStart(previous));
+    }
+
+    /**
+     * Computes eigenvector centrality from the given starting vector.
+     * The result is scaled so that the most central character has value 1.
+     *
+     * Each iteration multiplies by (A + I) rather than A. This has the same eigenvectors,
+     * but also converges on bipartite networks, where plain iteration oscillates.
+     * @param start
+     * @return
+     */
+    public Result eigenvector(double[] start) {
+        final int n = size();
+        double[] current = normalize(Arrays.copyOf(start, n), true);
+        List<Double> residuals = new ArrayList<>();
+        while (residuals.size() < maxIterations) {
+            final double[] previous = current;
+            final double[] next = new double[n];
+            forEachRow(new IntConsumer() {
+                @Override
+                public void accept(int i) {
+                    double sum = previous[i];
+                    for (int e = rowStarts[i]; e < rowStarts[i + 1]; e++) {
+                        sum += weights[e] * previous[columns[e]];
+                    }
+                    next[i] = sum;
+                }
+            });
+            normalize(next, true);
+            double residual = l1Distance(current, next);
+            residuals.add(residual);
+            current = next;
+            if (residual < tolerance) {
+                break;
+            }
+        }
+        return new Result(characters, current, residuals, tolerance);
+    }
+
+    private void forEachRow(IntConsumer action) {
+        IntStream rows = IntStream.range(0, size());
+        if (size() >= PARALLEL_THRESHOLD) {
+            rows = rows.parallel();
+        }
+        rows.forEach(action);
+    }
+
+    private double[] getStart(Result previous) {
+        double[] start = new double[size()];
+        Arrays.fill(start, 1.0 / size());
+        if (previous != null) {
+            double mean = 0;
+            for (double v : previous.getVector()) {
+                mean += v;
+            }
+            mean /= previous.getVector().length;
+            for (int i = 0; i < size(); i++) {
+                Double value = previous.getValue(characters[i]);
+                start[i] = (value == null) ? mean : value;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Scales the vector in place so that it sums to 1, or if byMax, so that its largest value is 1.
+     * A vector of zeros is replaced by a uniform vector.
+     */
+    private static double[] normalize(double[] vector, boolean byMax) {
+        double norm = 0;
+        for (double v : vector) {
+            norm = byMax ? Math.max(norm, Math.abs(v)) : norm + Math.abs(v);
+        }
+        for (int i = 0; i < vector.length; i++) {
+            if (norm > 0) {
+                vector[i] = vector[i] / norm;
+            } else {
+                vector[i] = byMax ? 1.0 : 1.0 / vector.length;
+            }
+        }
+        return vector;
+    }
+
+    private static double l1Distance(double[] a, double[] b) {
+        double distance = 0;
+        for (int i = 0; i < a.length; i++) {
+            distance += Math.abs(a[i] - b[i]);
+        }
+        return distance;
+    }
+
+    /**
+     * The solution vector of a power iteration, along with the residual of every iteration
+     */
+    public static class Result {
+        private final String[] characters;
+        private final double[] vector;
+        private final List<Double> residuals;
+        private final boolean converged;
+        private Map<String, Integer> indices = null;
+
+        Result(String[] characters, double[] vector, List<Double> residuals, double tolerance) {
+            this.characters = characters;
+            this.vector = vector;
+            this.residuals = Collections.unmodifiableList(residuals);
+            this.converged = !residuals.isEmpty() && residuals.get(residuals.size() - 1) < tolerance;
+        }
+
+        public String[] getCharacters() {
+            return characters;
+        }
+
+        public double[] getVector() {
+            return vector;
+        }
+
+        /**
+         * Returns the value for the character, or null if the character is not in this result
+         * @param character
+         * @return
+         */
+        public Double getValue(String character) {
+            if (indices == null) {
+                Map<String, Integer> map = new HashMap<>();
+                for (int i = 0; i < characters.length; i++) {
+                    map.put(characters[i], i);
+                }
+                indices = map;
+            }
+            Integer index = indices.get(character);
+            return (index == null) ? null : vector[index];
+        }
+
+        public int getIterations() {
+            return residuals.size();
+        }
+
+        public double getResidual() {
+            return residuals.isEmpty() ? Double.NaN : residuals.get(residuals.size() - 1);
+        }
+
+        public List<Double> getResiduals() {
+            return residuals;
+        }
+
+        public boolean isConverged() {
+            return converged;
+        }
+
+        @Override
+        public String toString() {
+            return (converged ? "Converged" : "Did not converge") + " after " + getIterations()
+                    + " iterations with residual " + getResidual();
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package edu.macalester.mscs.network;
+
+import edu.macalester.mscs.utils.FileUtils;
+import edu.macalester.mscs.utils.Logger;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The networks of every book in a series, over one set of characters with stable ids.
+ *
+ * Each MatrixConstructor indexes its matrix by its own character list, so the same character has a
+ * different index in every book. Here each character gets a global id the first time it is seen, reading
+ * the character lists in the order they are given and then the books in the order they are added, so ids
+ * never change as books are added. Characters are matched across books by their names in the matrices.
+ *
+ * Each book is a layer of the network, stored sparsely as the weights of its edges between global ids.
+ * The union, intersection and difference of any of the layers are computed from the layers directly,
+ * without building or reading any of the books again.
+ */
+public class SeriesNetwork {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> characters = new ArrayList<>();
+    private final List<String> books = new ArrayList<>();
+    private final List<Map<Long, Integer>> layers = new ArrayList<>();
+
+    /**
+     * Builds the five books of A Song of Ice and Fire, and writes the network of all of them
+     * and the network of the characters that meet in every book
+     * @param args
+     */
+    public static void main(String[] args) {
+        String fileDesc = "series";
+
+        SeriesNetwork series = new SeriesNetwork(Arrays.asList(
+                GameOfThronesConstructor.CHARACTER_FILE_NAME,
+                ClashOfKingsConstructor.CHARACTER_FILE_NAME,
+                StormOfSwordsConstructor.CHARACTER_FILE_NAME,
+                FeastForCrowsConstructor.CHARACTER_FILE_NAME,
+                DanceWithDragonsConstructor.CHARACTER_FILE_NAME));
+        series.build(Arrays.asList(
+                new GameOfThronesConstructor(19, 15, 3),
+                new ClashOfKingsConstructor(7, 15, 3),
+                new StormOfSwordsConstructor(8, 15, 3),
+                new FeastForCrowsConstructor(7, 15, 3),
+                new DanceWithDragonsConstructor(4, 15, 3)), fileDesc, MatrixConstructor.DEFAULT_LOG_FOLDER);
+
+        String prefix = MatrixConstructor.DEFAULT_LOG_FOLDER + "/GoT-" + fileDesc;
+        series.toLayerEdgeListCsvLog().writeLog(prefix + "-layers.csv");
+        series.union().toEdgeListCsvLog().writeLog(prefix + "-union-edge.csv");
+        series.intersection().toEdgeListCsvLog().writeLog(prefix + "-intersection-edge.csv");
+    }
+
+    /**
+     * Initializes an empty series, with no characters yet
+     */
+    public SeriesNetwork() {
+    }
+
+    /**
+     * Initializes an empty series, giving ids to the characters of the lists in order
+     * @param characterFileNames
+     */
+    public SeriesNetwork(List<String> characterFileNames) {
+        for (String characterFileName : characterFileNames) {
+            for (String line : FileUtils.readFile(characterFileName)) {
+                if (!line.isEmpty()) {
+                    getOrAddId(MatrixConstructor.getCharacterName(line.split(",")[0]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructs the matrices of the books in parallel, writing each log file to logFolder,
+     * and then adds them as layers in the order they are given
+     * @param constructors
+     * @param fileDescriptor
+     * @param logFolder
+     */
+    public void build(List<? extends MatrixConstructor> constructors, final String fileDescriptor, final String logFolder) {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(constructors.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+            List<Future<Matrix>> futures = new ArrayList<>();
+            for (final MatrixConstructor constructor : constructors) {
+                futures.add(executor.submit(new Callable<Matrix>() {
+                    @Override
+                    public Matrix call() {
+                        constructor.constructMatrix(fileDescriptor, logFolder);
+                        return constructor.getMatrix();
+                    }
+                }));
+            }
+            for (int i = 0; i < constructors.size(); i++) {
+                addBook(constructors.get(i).getBookId(), futures.get(i).get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error building series", e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Adds the matrix of a book as a new layer, giving ids to any characters that do not have one yet
+     * @param book
+     * @param matrix
+     */
+    public void addBook(String book, Matrix matrix) {
+        if (books.contains(book)) {
+            throw new IllegalArgumentException("Series already has book " + book);
+        }
+        String[] names = matrix.getCharacters();
+        int[][] weights = matrix.getMatrix();
+        int[] globalIds = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            globalIds[i] = getOrAddId(names[i]);
+        }
+        Map<Long, Integer> layer = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            for (int j = i + 1; j < names.length; j++) {
+                if (weights[i][j] > 0 && globalIds[i] != globalIds[j]) {
+                    long key = getKey(globalIds[i], globalIds[j]);
+                    Integer old = layer.get(key);
+                    layer.put(key, (old == null) ? weights[i][j] : old + weights[i][j]);
+                }
+            }
+        }
+        books.add(book);
+        layers.add(layer);
+    }
+
+    private int getOrAddId(String character) {
+        Integer id = ids.get(character);
+        if (id == null) {
+            id = characters.size();
+            ids.put(character, id);
+            characters.add(character);
+        }
+        return id;
+    }
+
+    private static long getKey(int id1, int id2) {
+        return ((long) Math.min(id1, id2) << 32) | Math.max(id1, id2);
+    }
+
+    /**
+     * Returns the global id of the character, or -1 if it has none
+     * @param character
+     * @return
+     */
+    public int getId(String character) {
+        Integer id = ids.get(character);
+        return (id == null) ? -1 : id;
+    }
+
+    public String getCharacter(int id) {
+        return characters.get(id);
+    }
+
+    public int getCharacterCount() {
+        return characters.size();
+    }
+
+    public List<String> getBooks() {
+        return Collections.unmodifiableList(books);
+    }
+
+    /**
+     * Returns the weight between the two characters in the book, or 0 if they do not meet there
+     * @param book
+     * @param character1
+     * @param character2
+     * @return
+     */
+    public int getWeight(String book, String character1, String character2) {
+        int id1 = getId(character1);
+        int id2 = getId(character2);
+        if (id1 < 0 || id2 < 0) {
+            return 0;
+        }
+        Integer weight = getLayer(book).get(getKey(id1, id2));
+        return (weight == null) ? 0 : weight;
+    }
+
+    private Map<Long, Integer> getLayer(String book) {
+        int index = books.indexOf(book);
+        if (index < 0) {
+            throw new IllegalArgumentException("Series has no book " + book);
+        }
+        return layers.get(index);
+    }
+
+    /**
+     * Returns the network of every edge in any of the books, weighted by its total weight in all of them
+     * @return
+     */
+    public Matrix union() {
+        return union(books);
+    }
+
+    /**
+     * Returns the network of every edge in any of the books, weighted by its total weight in them
+     * @param books
+     * @return
+     */
+    public Matrix union(Collection<String> books) {
+        Map<Long, Integer> edges = new HashMap<>();
+        for (String book : books) {
+            for (Map.Entry<Long, Integer> entry : getLayer(book).entrySet()) {
+                Integer old = edges.get(entry.getKey());
+                edges.put(entry.getKey(), (old == null) ? entry.getValue() : old + entry.getValue());
+            }
+        }
+        return toMatrix(edges);
+    }
+
+    /**
+     * Returns the network of the edges in every book, weighted by their smallest weight in any of them
+     * @return
+     */
+    public Matrix intersection() {
+        return intersection(books);
+    }
+
+    /**
+     * Returns the network of the edges in every one of the books, weighted by their smallest weight in any of them
+     * @param books
+     * @return
+     */
+    public Matrix intersection(Collection<String> books) {
+        Map<Long, Integer> edges = null;
+        for (String book : books) {
+            Map<Long, Integer> layer = getLayer(book);
+            if (edges == null) {
+                edges = new HashMap<>(layer);
+            } else {
+                Iterator<Map.Entry<Long, Integer>> iterator = edges.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<Long, Integer> entry = iterator.next();
+                    Integer weight = layer.get(entry.getKey());
+                    if (weight == null) {
+                        iterator.remove();
+                    } else if (weight < entry.getValue()) {
+                        entry.setValue(weight);
+                    }
+                }
+            }
+        }
+        return toMatrix((edges == null) ? new HashMap<Long, Integer>() : edges);
+    }
+
+    /**
+     * Returns the network of the edges in the book that are in none of the other books, with their weights in the book
+     * @param book
+     * @param others
+     * @return
+     */
+    public Matrix difference(String book, Collection<String> others) {
+        Map<Long, Integer> edges = new HashMap<>(getLayer(book));
+        for (String other : others) {
+            edges.keySet().removeAll(getLayer(other).keySet());
+        }
+        return toMatrix(edges);
+    }
+
+    /**
+     * Returns a matrix of the edges, over the characters that have any of them, in order of their ids
+     */
+    private Matrix toMatrix(Map<Long, Integer> edges) {
+        SortedSet<Integer> used = new TreeSet<>();
+        for (long key : edges.keySet()) {
+            used.add((int) (key >>> 32));
+            used.add((int) key);
+        }
+        int[] indices = new int[characters.size()];
+        String[] names = new String[used.size()];
+        int index = 0;
+        for (int id : used) {
+            indices[id] = index;
+            names[index] = characters.get(id);
+            index++;
+        }
+        int[][] matrix = new int[names.length][names.length];
+        for (Map.Entry<Long, Integer> entry : edges.entrySet()) {
+            int i = indices[(int) (entry.getKey() >>> 32)];
+            int j = indices[(int) (long) entry.getKey()];
+            matrix[i][j] = entry.getValue();
+            matrix[j][i] = entry.getValue();
+        }
+        return new Matrix(names, matrix);
+    }
+
+    /**
+     * Converts the layers to CSV lines of a list of edges, with the weight of each edge in every book.
+     * The header is "Id1,Id2,Source,Target," followed by the books. The edges are in order of their ids.
+     * @return
+     */
+    public Logger toLayerEdgeListCsvLog() {
+        SortedSet<Long> keys = new TreeSet<>();
+        for (Map<Long, Integer> layer : layers) {
+            keys.addAll(layer.keySet());
+        }
+        Logger logger = new Logger();
+        StringBuilder header = new StringBuilder("Id1,Id2,Source,Target");
+        for (String book : books) {
+            header.append(',').append(book);
+        }
+        logger.log(header.toString());
+        for (long key : keys) {
+            int id1 = (int) (key >>> 32);
+            int id2 = (int) key;
+            StringBuilder sb = new StringBuilder();
+            sb.append(id1).append(',').append(id2).append(",\"").append(characters.get(id1))
+                    .append("\",\"").append(characters.get(id2)).append('"');
+            for (Map<Long, Integer> layer : layers) {
+                Integer weight = layer.get(key);
+                sb.append(',').append((weight == null) ? 0 : weight);
+            }
+            logger.log(sb.toString());
+        }
+        return logger;
+    }
+}
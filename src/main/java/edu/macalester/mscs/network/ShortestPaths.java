@@ -0,0 +1,298 @@
+package edu.macalester.mscs.network;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Computes shortest path statistics from every character of a Matrix in one shot:
+ * closeness, average distance, harmonic centrality, eccentricity, and the diameter and radius.
+ *
+ * Unweighted distances count edges, and are computed with a bit-parallel multi-source BFS that
+ * runs 64 sources at once, one per bit of a long. Weighted distances use the inverse of the number
+ * of co-occurrences as the length of an edge (so frequent co-occurrence means close), and are
+ * computed with one Dijkstra search per source. In both cases, batches of sources run in parallel.
+ *
+ * Only reachable characters contribute to a character's statistics, so a network with floaters
+ * still has finite values. Closeness is the number of reachable characters over the sum of their
+ * distances, while average distance is its inverse (this is what Gephi reports as closeness, which
+ * is why smaller values rank higher in the centrality tables). Harmonic centrality is the sum of
+ * the inverse distances, divided by n - 1.
+ */
+public class ShortestPaths {
+
+    private final String[] characters;
+    private final double[] distanceSums;
+    private final int[] reached;
+    private final double[] harmonicSums;
+    private final double[] eccentricities;
+    private final boolean weighted;
+
+    private ShortestPaths(String[] characters, boolean weighted) {
+        int n = characters.length;
+        this.characters = characters;
+        this.weighted = weighted;
+        this.distanceSums = new double[n];
+        this.reached = new int[n];
+        this.harmonicSums = new double[n];
+        this.eccentricities = new double[n];
+    }
+
+    /**
+     * Computes the statistics with every edge having length 1
+     * @param matrix
+     * @return
+     */
+    public static ShortestPaths unweighted(Matrix matrix) {
+        return unweighted(matrix.getCharacters(), matrix.getMatrix());
+    }
+
+    public static ShortestPaths unweighted(String[] characters, int[][] adjacency) {
+        final ShortestPaths paths = new ShortestPaths(characters, false);
+        final int[][] neighbors = getNeighbors(adjacency);
+        int batches = (characters.length + 63) / 64;
+        forEach(batches, new IntConsumer() {
+            @Override
+            public void accept(int batch) {
+                paths.multiSourceBfs(neighbors, batch * 64);
+            }
+        });
+        return paths;
+    }
+
+    /**
+     * Computes the statistics with every edge having length 1 / weight
+     * @param matrix
+     * @return
+     */
+    public static ShortestPaths weighted(Matrix matrix) {
+        return weighted(matrix.getCharacters(), matrix.getMatrix());
+    }
+
+    public static ShortestPaths weighted(String[] characters, int[][] adjacency) {
+        final ShortestPaths paths = new ShortestPaths(characters, true);
+        final int[][] neighbors = getNeighbors(adjacency);
+        final double[][] lengths = new double[neighbors.length][];
+        for (int i = 0; i < neighbors.length; i++) {
+            lengths[i] = new double[neighbors[i].length];
+            for (int k = 0; k < neighbors[i].length; k++) {
+                lengths[i][k] = 1.0 / adjacency[i][neighbors[i][k]];
+            }
+        }
+        forEach(characters.length, new IntConsumer() {
+            @Override
+            public void accept(int source) {
+                paths.dijkstra(neighbors, lengths, source);
+            }
+        });
+        return paths;
+    }
+
+    /**
+     * Runs a BFS from the (up to) 64 sources starting at firstSource simultaneously.
+     * Bit k of seen[v] is set once v has been reached from source firstSource + k.
+     */
+    private void multiSourceBfs(int[][] neighbors, int firstSource) {
+        int n = neighbors.length;
+        int sources = Math.min(64, n - firstSource);
+        long[] seen = new long[n];
+        long[] frontier = new long[n];
+        long[] next = new long[n];
+        for (int k = 0; k < sources; k++) {
+            seen[firstSource + k] |= 1L << k;
+            frontier[firstSource + k] |= 1L << k;
+        }
+        int depth = 0;
+        boolean active = true;
+        while (active) {
+            active = false;
+            depth++;
+            for (int v = 0; v < n; v++) {
+                long bits = 0;
+                for (int u : neighbors[v]) {
+                    bits |= frontier[u];
+                }
+                bits &= ~seen[v];
+                next[v] = bits;
+                if (bits != 0) {
+                    active = true;
+                    while (bits != 0) {
+                        int k = Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                        int source = firstSource + k;
+                        distanceSums[source] += depth;
+                        harmonicSums[source] += 1.0 / depth;
+                        reached[source]++;
+                        eccentricities[source] = depth;
+                    }
+                }
+            }
+            for (int v = 0; v < n; v++) {
+                seen[v] |= next[v];
+            }
+            long[] temp = frontier;
+            frontier = next;
+            next = temp;
+        }
+    }
+
+    private void dijkstra(int[][] neighbors, double[][] lengths, int source) {
+        int n = neighbors.length;
+        double[] distances = new double[n];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        boolean[] done = new boolean[n];
+        distances[source] = 0;
+        PriorityQueue<double[]> queue = new PriorityQueue<>(16, new Comparator<double[]>() {
+            @Override
+            public int compare(double[] o1, double[] o2) {
+                return Double.compare(o1[0], o2[0]);
+            }
+        });
+        queue.add(new double[] {0, source});
+        while (!queue.isEmpty()) {
+            int u = (int) queue.poll()[1];
+            if (done[u]) {
+                continue;
+            }
+            done[u] = true;
+            if (u != source) {
+                double distance = distances[u];
+                distanceSums[source] += distance;
+                harmonicSums[source] += 1.0 / distance;
+                reached[source]++;
+                eccentricities[source] = Math.max(eccentricities[source], distance);
+            }
+            for (int k = 0; k < neighbors[u].length; k++) {
+                int v = neighbors[u][k];
+                double distance = distances[u] + lengths[u][k];
+                if (distance < distances[v]) {
+                    distances[v] = distance;
+                    queue.add(new double[] {distance, v});
+                }
+            }
+        }
+    }
+
+    private static int[][] getNeighbors(int[][] adjacency) {
+        int n = adjacency.length;
+        int[][] neighbors = new int[n][];
+        for (int i = 0; i < n; i++) {
+            int degree = 0;
+            for (int j = 0; j < n; j++) {
+                if (i != j && adjacency[i][j] > 0) {
+                    degree++;
+                }
+            }
+            neighbors[i] = new int[degree];
+            int k = 0;
+            for (int j = 0; j < n; j++) {
+                if (i != j && adjacency[i][j] > 0) {
+                    neighbors[i][k++] = j;
+                }
+            }
+        }
+        return neighbors;
+    }
+
+    private static void forEach(int count, IntConsumer action) {
+        IntStream.range(0, count).parallel().forEach(action);
+    }
+
+    public String[] getCharacters() {
+        return characters;
+    }
+
+    public boolean isWeighted() {
+        return weighted;
+    }
+
+    public int size() {
+        return characters.length;
+    }
+
+    /**
+     * Returns the number of characters reachable from each character, not counting itself
+     * @return
+     */
+    public int[] getReached() {
+        return reached;
+    }
+
+    /**
+     * Returns the sum of the distances from each character to every reachable character
+     * @return
+     */
+    public double[] getDistanceSums() {
+        return distanceSums;
+    }
+
+    /**
+     * Returns the mean distance from each character to every reachable character
+     * @return
+     */
+    public double[] getAverageDistance() {
+        double[] average = new double[size()];
+        for (int i = 0; i < size(); i++) {
+            average[i] = (reached[i] == 0) ? 0 : distanceSums[i] / reached[i];
+        }
+        return average;
+    }
+
+    /**
+     * Returns the number of reachable characters over the sum of the distances to them
+     * @return
+     */
+    public double[] getCloseness() {
+        double[] closeness = new double[size()];
+        for (int i = 0; i < size(); i++) {
+            closeness[i] = (distanceSums[i] == 0) ? 0 : reached[i] / distanceSums[i];
+        }
+        return closeness;
+    }
+
+    /**
+     * Returns the sum of the inverse distances to every other character, divided by n - 1
+     * @return
+     */
+    public double[] getHarmonicCentrality() {
+        double[] harmonic = new double[size()];
+        for (int i = 0; i < size(); i++) {
+            harmonic[i] = (size() < 2) ? 0 : harmonicSums[i] / (size() - 1);
+        }
+        return harmonic;
+    }
+
+    /**
+     * Returns the greatest distance from each character to a reachable character
+     * @return
+     */
+    public double[] getEccentricity() {
+        return eccentricities;
+    }
+
+    /**
+     * Returns the greatest eccentricity
+     * @return
+     */
+    public double getDiameter() {
+        double diameter = 0;
+        for (double e : eccentricities) {
+            diameter = Math.max(diameter, e);
+        }
+        return diameter;
+    }
+
+    /**
+     * Returns the smallest eccentricity of any character with at least one connection
+     * @return
+     */
+    public double getRadius() {
+        double radius = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < size(); i++) {
+            if (reached[i] > 0) {
+                radius = Math.min(radius, eccentricities[i]);
+            }
+        }
+        return Double.isInfinite(radius) ? 0 : radius;
+    }
+}
@@ -4,6 +4,7 @@ import edu.uci.ics.jung.algorithms.cluster.WeakComponentClusterer;
 import edu.uci.ics.jung.algorithms.scoring.BetweennessCentrality;
 import edu.uci.ics.jung.graph.Graph;
 import edu.uci.ics.jung.graph.util.Pair;
+import org.apache.commons.collections15.Transformer;
 
 import java.util.*;
 
@@ -34,7 +35,7 @@ public class EdgeBetweennessClusterer<V,E> {
     * The more edges removed the smaller and more cohesive the clusters.
     * @param graph the graph
     */
-    public Set<Set<V>> transform(Graph<V, E> graph, HashMap<E, Double> weights) {
+    public Set<Set<V>> transform(Graph<V, E> graph, Transformer<E, ? extends Number> weights) {
                 
         if (numEdgesToRemove > graph.getEdgeCount()) {
             throw new IllegalArgumentException("Graph does not contain enough edges to remove.");
@@ -48,7 +49,7 @@ public class EdgeBetweennessClusterer<V,E> {
             double score = 0;
             for (E e : graph.getEdges()){
             	double newScore = bc.getEdgeScore(e);
-//                if (newScore*1.0/weights.get(e) > score) {
+//                if (newScore/weights.transform(e).doubleValue() > score) {
                 if (newScore > score) {
                     toRemove = e;
                     score = newScore;
@@ -1,10 +1,13 @@
 package edu.macalester.mscs.unused;
 
+import edu.macalester.mscs.network.ForceLayout;
+import edu.macalester.mscs.network.Matrix;
+import edu.macalester.mscs.utils.FileUtils;
+import edu.macalester.mscs.utils.Logger;
 import edu.uci.ics.jung.algorithms.layout.AggregateLayout;
 import edu.uci.ics.jung.algorithms.layout.CircleLayout;
-import edu.uci.ics.jung.algorithms.layout.FRLayout;
 import edu.uci.ics.jung.algorithms.layout.Layout;
-import edu.uci.ics.jung.algorithms.layout.util.Relaxer;
+import edu.uci.ics.jung.algorithms.layout.StaticLayout;
 import edu.uci.ics.jung.graph.Graph;
 import edu.uci.ics.jung.graph.SparseMultigraph;
 import edu.uci.ics.jung.visualization.GraphZoomScrollPane;
@@ -36,14 +39,19 @@ public class MatrixBuilder extends JApplet {
 
     private static final long serialVersionUID = 3256444702936019250L;
 
+    private static final String MATRIX_FILE = "./three.csv";
+
+    // the layout is computed once per matrix and cached here, instead of relaxing it every time the viewer opens
+    private static final String LAYOUT_FILE = "./three-layout.csv";
+
     //~ Instance fields --------------------------------------------------------
 
     //
 
 
 	VisualizationViewer<Number,Number> vv;
-	HashMap<Number, Double> weights = new HashMap<>();
-	HashMap<Number, String> cnames = new HashMap<>();
+	MatrixGraph matrixGraph;
+	boolean[] removedEdges;
 	int[][] matrixAll;
 	
 //	Factory<Graph<Number,Number>> graphFactory;
@@ -97,7 +105,7 @@ public class MatrixBuilder extends JApplet {
         try
         {
         	String line = "";
-        	BufferedReader br = new BufferedReader(new FileReader("./three.csv"));
+        	BufferedReader br = new BufferedReader(new FileReader(MATRIX_FILE));
         	line = br.readLine();
         	String[] names = line.split(",");
         	int[][] csvMatrix = new int[names.length][names.length];
@@ -154,7 +162,9 @@ private void setUpView(final MatrixAndNames man) throws IOException {
             }
         };
 
-        final Graph<Number,Number> graph = new SparseMultigraph<>();
+        matrixGraph = new MatrixGraph(man);
+        final Graph<Number,Number> graph = matrixGraph.getGraph();
+        removedEdges = new boolean[matrixGraph.getEdgeCount()];
 
         
         //pnr.load(br, graph);
@@ -172,25 +182,18 @@ private void setUpView(final MatrixAndNames man) throws IOException {
         		matrixAll[i][j] = matrix[i][j];
         	}
         }
-        for(int i=0; i<names.length; i++){
-        	cnames.put(i, names[i]);
-            graph.addVertex(i);
-        }
-        int e = 0;
-        for(int i=0; i<matrix.length; i++){
-        	for(int j=i+1; j<matrix.length; j++){
-        		if(matrix[i][j]>0){
-        			graph.addEdge(e, i, j);
-                    weights.put(e, matrix[i][j]*1.0);
-        			e++;
-        		}
-	        }
-        }
         
 		//Create a simple layout frame
-        //specify the Fruchterman-Rheingold layout algorithm
+        //load the precomputed Fruchterman-Rheingold layout
+        final ForceLayout positions = ForceLayout.load(man.getNames(), man.getMatrix(), LAYOUT_FILE, new Logger(true));
+        final Transformer<Number,Point2D> initializer = new Transformer<Number,Point2D>() {
+            public Point2D transform(Number v) {
+                return new Point2D.Double(positions.getX(v.intValue()), positions.getY(v.intValue()));
+            }
+        };
+        int layoutSize = (int) ForceLayout.DEFAULT_SIZE;
         final AggregateLayout<Number,Number> layout =
-        	new AggregateLayout<>(new FRLayout<>(graph));
+        	new AggregateLayout<>(new StaticLayout<>(graph, initializer, new Dimension(layoutSize, layoutSize)));
 
 		vv = new VisualizationViewer<>(layout);
 		vv.setBackground( Color.white );
@@ -213,51 +216,28 @@ private void setUpView(final MatrixAndNames man) throws IOException {
                 protected final Stroke THICK= new BasicStroke(2);
                 public Stroke transform(Number e)
                 {
-                    Paint c = edgePaints.get(e);
-                    if (c == Color.LIGHT_GRAY)
+                    if (removedEdges[e.intValue()])
                         return THIN;
                     else 
                         return THICK;
                 }
             });
 		
-		vv.getRenderContext().setVertexLabelTransformer(new Transformer<Number, String>() {
-            public String transform(Number v) {
-                return (v.toString()+" "+man.getNames()[(Integer) v]);
-            }
-        });
+		vv.getRenderContext().setVertexLabelTransformer(matrixGraph.getVertexLabeller());
 //		vv.getRenderContext().setVertexLabelTransformer(new ToStringLabeller());
 		
-		vv.getRenderContext().setEdgeLabelTransformer(new Transformer<Number, String>() {
-            public String transform(Number e) {
-            	int x=-1;
-            	int[][] purgedMatrix = man.getMatrix();
-            	for(int i=0; i<purgedMatrix.length; i++){
-		        	for(int j=i+1; j<purgedMatrix.length; j++){
-		        		if(purgedMatrix[i][j]>0){
-		        			x++;
-		        			if(x == (Integer) e){
-			        			return Integer.toString(purgedMatrix[i][j]);
-			        		}
-		        		}
-			        }
-		        }
-                return "0";
-            }
-        });
+		vv.getRenderContext().setEdgeLabelTransformer(matrixGraph.getEdgeLabeller());
 
 		//add restart button
 		JButton scramble = new JButton("Restart");
 		scramble.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent arg0) {
-				Layout layout = vv.getGraphLayout();
-				layout.initialize();
-				Relaxer relaxer = vv.getModel().getRelaxer();
-				if(relaxer != null) {
-					relaxer.stop();
-					relaxer.prerelax();
-					relaxer.relax();
+				//move the vertices back to their precomputed positions
+				Layout<Number,Number> layout = vv.getGraphLayout();
+				for (Number v : graph.getVertices()) {
+					layout.setLocation(v, initializer.transform(v));
 				}
+				vv.repaint();
 			}
 
 		});
@@ -299,12 +279,12 @@ private void setUpView(final MatrixAndNames man) throws IOException {
 		groupVertices.addItemListener(new ItemListener() {
 			public void itemStateChanged(ItemEvent e) {
 					clusterAndRecolor(layout, edgeBetweennessSlider.getValue(), 
-							similarColors, e.getStateChange() == ItemEvent.SELECTED, weights, cnames);
+							similarColors, e.getStateChange() == ItemEvent.SELECTED);
 					vv.repaint();
 			}});
 
 
-		clusterAndRecolor(layout, 0, similarColors, groupVertices.isSelected(), weights, cnames);
+		clusterAndRecolor(layout, 0, similarColors, groupVertices.isSelected());
 
 		edgeBetweennessSlider.addChangeListener(new ChangeListener() {
 			public void stateChanged(ChangeEvent e) {
@@ -312,7 +292,7 @@ private void setUpView(final MatrixAndNames man) throws IOException {
 				if (!source.getValueIsAdjusting()) {
 					int numEdgesToRemove = source.getValue();
 					clusterAndRecolor(layout, numEdgesToRemove, similarColors,
-							groupVertices.isSelected(), weights, cnames);
+							groupVertices.isSelected());
 					sliderBorder.setTitle(
 						COMMANDSTRING + edgeBetweennessSlider.getValue());
 					eastControls.repaint();
@@ -339,8 +319,7 @@ private void setUpView(final MatrixAndNames man) throws IOException {
 	}
     
     public void clusterAndRecolor(AggregateLayout<Number,Number> layout,
-    		int numEdgesToRemove, Color[] colors, boolean groupClusters, 
-    		HashMap<Number, Double> weights, HashMap<Number, String> cnames) {
+    		int numEdgesToRemove, Color[] colors, boolean groupClusters) {
     		//Now cluster the vertices by removing the top 50 edges with highest betweenness
     		//		if (numEdgesToRemove == 0) {
     		//			colorCluster( g.getVertices(), colors[0] );
@@ -351,8 +330,11 @@ private void setUpView(final MatrixAndNames man) throws IOException {
 
     		EdgeBetweennessClusterer<Number,Number> clusterer =
     			new EdgeBetweennessClusterer<>(numEdgesToRemove);
-    		Set<Set<Number>> clusterSet = clusterer.transform(g, weights);
-    		List<Number> edges = clusterer.getEdgesRemoved();
+    		Set<Set<Number>> clusterSet = clusterer.transform(g, matrixGraph.getEdgeWeights());
+    		Arrays.fill(removedEdges, false);
+    		for (Number e : clusterer.getEdgesRemoved()) {
+    			removedEdges[e.intValue()] = true;
+    		}
 
     		int i = 0;
     		//Set the colors of each node so that each cluster's vertices have the same color
@@ -367,33 +349,31 @@ private void setUpView(final MatrixAndNames man) throws IOException {
 				i++;
 			}
     		for (Number e : g.getEdges()) {
-    			if (edges.contains(e)) {
+    			if (removedEdges[e.intValue()]) {
     				edgePaints.put(e, Color.lightGray);
     			} else {
     				edgePaints.put(e, Color.black);
     			}
     		}
     		
-    		Double[][] communityMatrix = new Double[cnames.size()][cnames.size()];
-    		for(int m=0;m<cnames.size();m++){
-    			for(int n=0;n<cnames.size();n++){
+    		Double[][] communityMatrix = new Double[matrixGraph.getVertexCount()][matrixGraph.getVertexCount()];
+    		for(int m=0;m<matrixGraph.getVertexCount();m++){
+    			for(int n=0;n<matrixGraph.getVertexCount();n++){
     				communityMatrix[m][n] = 0.0;
     			}
     		}
     		for (Number e : g.getEdges()) {
-    			if (!edges.contains(e)) {
-    				int v1 = g.getEndpoints(e).getFirst().intValue();
-					int v2 = g.getEndpoints(e).getSecond().intValue();
-    				communityMatrix[v1][v2] = weights.get(e);
-    				communityMatrix[v2][v1] = weights.get(e);
+    			if (!removedEdges[e.intValue()]) {
+    				int v1 = matrixGraph.getSource(e);
+					int v2 = matrixGraph.getTarget(e);
+    				communityMatrix[v1][v2] = matrixGraph.getWeight(e)*1.0;
+    				communityMatrix[v2][v1] = matrixGraph.getWeight(e)*1.0;
     			}
     		}    		
     		
-    		/*String[] namesA = new String[cnames.size()];
-    		int z=0;
-    		for(String s: cnames.values()){
-    			namesA[z] = s;
-    			z++;
+    		/*String[] namesA = new String[matrixGraph.getVertexCount()];
+    		for(int z=0; z<namesA.length; z++){
+    			namesA[z] = matrixGraph.getName(z);
     		}
     		printMatrixDouble(communityMatrix, namesA);*/
     		
@@ -426,14 +406,8 @@ private void setUpView(final MatrixAndNames man) throws IOException {
     public static MatrixAndNames getData(){
     	MatrixAndNames data = null;
     	try {
-			//File file = new File("./b4dae.txt");
-			File file = new File("./got3.txt");
-			String text = "";
-			Scanner scanner = new Scanner(file);
-			while (scanner.hasNext()) {
-				text += scanner.next()+" ";
-			}
-			scanner.close();
+			//String text = FileUtils.readText("./b4dae.txt");
+			String text = FileUtils.readText("./got3.txt");
 			//String nameInput = "Bran Jon Ben Theon Eddard=Ned Cersei Robb";
 			/*String nameInput = "Bran Jon Theon Robb Joffrey Tyrion=Imp Arya Sansa Cersei Jaime Eddard=Ned Gregor Catelyn Robert Rickon Benjen=Ben "
 					+"Tywin Samwell=Sam Gendry Shae Varys Bronn Jeor Daenerys=Khaleesi=Dany "
@@ -453,30 +427,19 @@ private void setUpView(final MatrixAndNames man) throws IOException {
 					+"Pycelle Meryn Janos Dontos Ilyn Mance Davos Stannis Margaery Melisandre Ygritte Salladhor "
 					+"Oberyn Brienne Jojen Meera Daario Missandei Roslin Olenna "
 					+"Qhorin Kraznys Qyburn Craster Gilly Styr";
-			HashMap<String,ArrayList<String>> nickname = new HashMap<>();
+			// map each nickname to its primary name
+			Map<String,String> nickname = new HashMap<>();
 			String[] nicknameArr = nameInput.split(" ");
 			for(int i=0; i<nicknameArr.length; i++){
-				if(nicknameArr[i].contains("=")){
-					String[] temp = nicknameArr[i].split("=");
-					//System.out.println(temp.length);
-					for(int j=1; j<temp.length; j++){
-						if(!nickname.containsKey(temp[0])){
-							ArrayList<String> others = new ArrayList<>();
-							others.add(temp[j]);
-							nickname.put(temp[0], others);
-						}else{
-							ArrayList<String> others = nickname.get(temp[0]);
-							others.add(temp[j]);
-							nickname.put(temp[0], others);
-							//System.out.println(temp[j]);
-						}
-					}
+				String[] temp = nicknameArr[i].split("=");
+				for(int j=1; j<temp.length; j++){
+					nickname.put(temp[j], temp[0]);
 				}
 			}
 			String[] nameInputArr = nameInput.split("[ =]");
 			int[][] matrix = new int[nameInputArr.length][nameInputArr.length];
 			
-			String[] input = text.split(" ");
+			String[] input = text.split("\\s+");
 			// threshold: 3=13
 			int reach = 13;
 			
@@ -494,15 +457,10 @@ private void setUpView(final MatrixAndNames man) throws IOException {
 					}
 				}
 			}
-			data = new MatrixAndNames(matrix, nameInputArr);
-			data = removeNickname(data, nickname);
-			//printMatrix(data.getMatrix(), data.getCharacters());
-			matrix = data.getMatrix();
-			nameInputArr = data.getNames();
-			//printMatrix(matrix, nameInputArr);
-			//System.out.println(text);	
-			
-			data = purgeData(data);
+			// merge the nicknames into their primary names, and drop characters without connections
+			Matrix collapsed = new Matrix(nameInputArr, matrix).collapse(nickname);
+			collapsed.cleanNoise(1);
+			data = new MatrixAndNames(collapsed.getMatrix(), collapsed.getCharacters());
 			printMatrix(data.getMatrix(), data.getNames());
 			String[] purgedNames = data.getNames();
 			int[][] purgedMatrix = data.getMatrix();
@@ -547,78 +505,12 @@ private void setUpView(final MatrixAndNames man) throws IOException {
 		    } catch (IOException e) {
 		    	e.printStackTrace();
 		    }
-		} catch (FileNotFoundException e) {
+		} catch (RuntimeException e) {
 			e.printStackTrace();
 		}
     	return data;
     }
     
-	private static MatrixAndNames purgeData(MatrixAndNames data) {
-		String[] names = data.getNames();
-		int[][] matrix = data.getMatrix();
-		int nicknameCount = 0;
-		for(int i=0; i< names.length; i++){
-			if(names[i].contains("void")) nicknameCount++;
-		}
-		String[] purgedNames = new String[names.length - nicknameCount];
-		int[][] purgedMatrix = new int[purgedNames.length][purgedNames.length];
-		int temp = 0;
-		for(int j=0; j<names.length; j++){
-			if(!names[j].contains("void")){
-				purgedNames[temp] = names[j];
-				int col = 0;
-				for(int k=0; k<matrix.length; k++){
-					if(matrix[j][k]>=0){
-						purgedMatrix[temp][col] = Math.max(matrix[j][k]-5, matrix[j][k]/10);
-						col++;
-					}
-				}
-				temp++;
-			}
-		}
-		HashMap<Integer, Integer> singleton = new HashMap<>();
-		for(int i=0; i<purgedMatrix.length; i++){
-			Boolean single = true;
-			for(int j=0; j<purgedMatrix[i].length; j++){
-				if(purgedMatrix[i][j] > 0){
-					single = false;
-					break;
-				}
-			}
-			if(single)singleton.put(i, i);
-		}
-		String[] purgedNames2 = new String[purgedNames.length-singleton.size()];
-		int[][] purgedMatrix2 = new int[purgedNames2.length][purgedNames2.length];
-		int namesPos=0;
-		System.out.print("Omitted singleton(s): ");
-		for(int i=0; i<purgedNames.length; i++){
-			if(!singleton.containsKey(i)){
-				purgedNames2[namesPos] = purgedNames[i];
-				namesPos++;
-			}else{
-				System.out.print(purgedNames[i]+" ");
-			}
-		}
-		System.out.print("\n");
-		int m=0;
-		int n=0;
-		for(int i=0; i<purgedNames.length; i++){
-			n=0;
-			if(!singleton.containsKey(i)){
-				for(int j=0; j<purgedNames.length; j++){
-					if(!singleton.containsKey(j)){
-						purgedMatrix2[m][n] = purgedMatrix[i][j];
-						n++;
-					}
-				}
-				m++;
-			}
-		}
-//		data.setMatrix(purgedMatrix);
-//		data.setNames(purgedNames);
-		return data;
-	}
-
 	public static void main(String[] args){
 		MatrixBuilder applet = new MatrixBuilder();
         applet.init();
@@ -638,35 +530,6 @@ private void setUpView(final MatrixAndNames man) throws IOException {
 //        frame.setVisible(true);	
 	}
 	
-	public static MatrixAndNames removeNickname(MatrixAndNames man, HashMap<String,ArrayList<String>> nickname){
-		//System.out.println(nickname.containsKey("Eddard"));
-		for(int i=0; i<man.getNames().length; i++){
-			if(nickname.containsKey(man.getNames()[i])){
-				int j = i+1;
-				//System.out.println(man.getCharacterString().length+" man.getCharacterString().length");
-				//System.out.println(man.getCharacterString()[j]+" man.getCharacterString()[j]");
-				//System.out.println(nickname.containsValue(man.getCharacterString()[j])+" nickname.containsValue(man.getCharacterString()[j])");
-				while(j<man.getNames().length && nickname.get(man.getNames()[i]).contains(man.getNames()[j])){
-					for(int m=0; m<man.getMatrix().length; m++){
-						if(m != j){
-							man.getMatrix()[m][i] = man.getMatrix()[m][i] + man.getMatrix()[m][j];
-							man.getMatrix()[m][j] = -1;
-						}else{
-							for(int n=0; n<man.getMatrix().length; n++){
-								man.getMatrix()[i][n] = man.getMatrix()[i][n] + man.getMatrix()[j][n];
-								man.getMatrix()[j][n] = -1;
-							}
-						}
-					}
-					man.getNames()[j] = "void:"+man.getNames()[j];
-					man.getMatrix()[i][i] = 0;
-					j++;
-				}
-			}
-		}
-		return man;
-	}
-	
 	public static void printMatrix(int[][] matrix, String[] nameInputArr){
 		String[] nameNum = new String[nameInputArr.length];
 		String title = "";
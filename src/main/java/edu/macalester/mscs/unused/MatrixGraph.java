@@ -0,0 +1,131 @@
+package edu.macalester.mscs.unused;
+
+import edu.macalester.mscs.network.Matrix;
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.UndirectedSparseGraph;
+import org.apache.commons.collections15.Transformer;
+
+/**
+ * Exposes an adjacency matrix to JUNG as an undirected graph.
+ *
+ * Vertex v is row v of the matrix, and the edges are numbered 0 to getEdgeCount() - 1 in the order of
+ * the nonzero entries of the upper triangle. The endpoints and weight of every edge are stored in arrays
+ * indexed by edge number, so the labels, strokes and clustering of a viewer can look up an edge in constant
+ * time, instead of rescanning the matrix for it every time the edge is painted.
+ */
+public class MatrixGraph {
+
+    private final String[] names;
+    private final int[] sources;
+    private final int[] targets;
+    private final int[] weights;
+    private final String[] labels;
+    private final Graph<Number, Number> graph = new UndirectedSparseGraph<>();
+
+    public MatrixGraph(String[] names, int[][] matrix) {
+        if (matrix.length != names.length) {
+            throw new IllegalArgumentException("Matrix has " + matrix.length + " rows for " + names.length + " names");
+        }
+        this.names = names;
+        int edgeCount = 0;
+        for (int i = 0; i < matrix.length; i++) {
+            for (int j = i + 1; j < matrix.length; j++) {
+                if (matrix[i][j] > 0) {
+                    edgeCount++;
+                }
+            }
+        }
+        sources = new int[edgeCount];
+        targets = new int[edgeCount];
+        weights = new int[edgeCount];
+        labels = new String[edgeCount];
+        for (int i = 0; i < names.length; i++) {
+            graph.addVertex(i);
+        }
+        int e = 0;
+        for (int i = 0; i < matrix.length; i++) {
+            for (int j = i + 1; j < matrix.length; j++) {
+                if (matrix[i][j] > 0) {
+                    sources[e] = i;
+                    targets[e] = j;
+                    weights[e] = matrix[i][j];
+                    labels[e] = Integer.toString(matrix[i][j]);
+                    graph.addEdge(e, i, j);
+                    e++;
+                }
+            }
+        }
+    }
+
+    public MatrixGraph(MatrixAndNames man) {
+        this(man.getNames(), man.getMatrix());
+    }
+
+    public MatrixGraph(Matrix matrix) {
+        this(matrix.getCharacters(), matrix.getMatrix());
+    }
+
+    public Graph<Number, Number> getGraph() {
+        return graph;
+    }
+
+    public int getVertexCount() {
+        return names.length;
+    }
+
+    public int getEdgeCount() {
+        return weights.length;
+    }
+
+    public String getName(Number v) {
+        return names[v.intValue()];
+    }
+
+    public int getSource(Number e) {
+        return sources[e.intValue()];
+    }
+
+    public int getTarget(Number e) {
+        return targets[e.intValue()];
+    }
+
+    public int getWeight(Number e) {
+        return weights[e.intValue()];
+    }
+
+    /**
+     * Labels each vertex with its index and name
+     * @return
+     */
+    public Transformer<Number, String> getVertexLabeller() {
+        return new Transformer<Number, String>() {
+            public String transform(Number v) {
+                return v + " " + getName(v);
+            }
+        };
+    }
+
+    /**
+     * Labels each edge with its weight
+     * @return
+     */
+    public Transformer<Number, String> getEdgeLabeller() {
+        return new Transformer<Number, String>() {
+            public String transform(Number e) {
+                return labels[e.intValue()];
+            }
+        };
+    }
+
+    /**
+     * Returns the weight of each edge, as the JUNG algorithms expect them
+     * @return
+     */
+    public Transformer<Number, Number> getEdgeWeights() {
+        return new Transformer<Number, Number>() {
+            public Number transform(Number e) {
+                return getWeight(e);
+            }
+        };
+    }
+}
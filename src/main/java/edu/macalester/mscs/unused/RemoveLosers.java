@@ -1,8 +1,8 @@
 package edu.macalester.mscs.unused;
 
-import java.io.*;
+import edu.macalester.mscs.network.NetworkFilter;
+
 import java.util.Arrays;
-import java.util.List;
 
 /**
  * This removes characters from the raw log file that don't matter. 
@@ -26,44 +26,10 @@ public class RemoveLosers {
 	 * @param args
 	 */
 	public static void main(String[] args) {
-		String line = null;
-		List<String> loserList = Arrays.asList(losers);
-		BufferedReader fileReader = null;
-		BufferedWriter writer = null;
-		try{
-			fileReader = new BufferedReader(new FileReader("src/main/resources/data/logs/GoT3-NewShortlistQuote-Log-15-4.csv"));
-			writer = new BufferedWriter(new FileWriter("src/main/resources/data/logs/GOT3-NoLosers-15-4_v2.csv"));
-
-			boolean done = false;
-
-			while (!done && (line = fileReader.readLine()) != null) {
-				if (line.startsWith("Removed Singleton")) {
-					done = true;
-				}
-				String[] tokens = line.split(",");
-				if (!done && tokens.length > 1
-						&& (loserList.contains(tokens[0].trim()) || loserList.contains(tokens[1].trim()))) {
-					System.out.println("Contained loser:" + tokens[0] + " or " + tokens[1]);
-				} else {
-					writer.write(line);
-					writer.write('\n');
-				}
-
-			}
-		} catch (Exception e) {
-			throw new RuntimeException("Error at \'" + line + "\'");
-		} finally {
-			if (fileReader != null) {
-				try {
-					fileReader.close();
-				} catch (IOException ignored) {}
-			}
-			if (writer != null) {
-				try {
-					writer.close();
-				} catch (IOException ignored) {}
-			}
-		}
+		// the removed singletons and the matrix after them are copied unchanged
+		NetworkFilter.excluding(Arrays.asList(losers)).until("Removed singleton").filterFile(
+				"src/main/resources/data/logs/GoT3-NewShortlistQuote-Log-15-4.csv",
+				"src/main/resources/data/logs/GOT3-NoLosers-15-4_v2.csv");
 	}
 
 }
@@ -0,0 +1,178 @@
+package edu.macalester.mscs.utils;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Sorts the lines of a file that may not fit in memory.
+ *
+ * The file is read in runs of at most maxLines lines. Each run is sorted in memory and written to
+ * a temporary file, and the sorted lines are then read back by merging the runs, so at most one run
+ * and one line per run are held in memory at a time. A file that fits in a single run is never
+ * written out. The sort is stable: lines that compare equal keep their order in the file.
+ *
+ * Lines are trimmed, as FileUtils.readFile trims them.
+ */
+public class ExternalSort {
+
+    public static final int DEFAULT_MAX_LINES = 100000;
+
+    private ExternalSort() {}
+
+    /**
+     * Returns the lines of the file in sorted order. The result must be closed to delete its temporary files.
+     * @param file
+     * @param order
+     * @return
+     */
+    public static SortedLines sort(String file, Comparator<String> order) {
+        return sort(file, order, DEFAULT_MAX_LINES);
+    }
+
+    /**
+     * Returns the lines of the file in sorted order, holding at most maxLines lines in memory while sorting.
+     * The result must be closed to delete its temporary files.
+     * @param file
+     * @param order
+     * @param maxLines
+     * @return
+     */
+    public static SortedLines sort(String file, Comparator<String> order, int maxLines) {
+        if (maxLines < 1) {
+            throw new IllegalArgumentException("maxLines must be positive: " + maxLines);
+        }
+        List<File> runs = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line.trim());
+                if (lines.size() == maxLines) {
+                    runs.add(writeRun(lines, order));
+                    lines.clear();
+                }
+            }
+            if (runs.isEmpty()) {
+                Collections.sort(lines, order);
+                return new SortedLines(lines.iterator());
+            }
+            if (!lines.isEmpty()) {
+                runs.add(writeRun(lines, order));
+            }
+            return new SortedLines(runs, order);
+        } catch (IOException e) {
+            for (File run : runs) {
+                run.delete();
+            }
+            throw new RuntimeException("Error sorting " + file, e);
+        }
+    }
+
+    private static File writeRun(List<String> lines, Comparator<String> order) throws IOException {
+        Collections.sort(lines, order);
+        File run = File.createTempFile("run", ".txt");
+        run.deleteOnExit();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(run))) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        return run;
+    }
+
+    /**
+     * The sorted lines of a file, merged lazily from its sorted runs
+     */
+    public static class SortedLines implements Iterator<String>, Closeable {
+        private final Iterator<String> lines;
+        private final List<File> runs;
+        private final List<BufferedReader> readers = new ArrayList<>();
+        private final PriorityQueue<Run> queue;
+
+        SortedLines(Iterator<String> lines) {
+            this.lines = lines;
+            this.runs = Collections.emptyList();
+            this.queue = null;
+        }
+
+        SortedLines(List<File> runs, final Comparator<String> order) throws IOException {
+            this.lines = null;
+            this.runs = runs;
+            // equal lines come from the earliest run, to keep the sort stable
+            this.queue = new PriorityQueue<>(runs.size(), new Comparator<Run>() {
+                @Override
+                public int compare(Run o1, Run o2) {
+                    int compare = order.compare(o1.head, o2.head);
+                    return (compare != 0) ? compare : Integer.compare(o1.index, o2.index);
+                }
+            });
+            try {
+                for (int i = 0; i < runs.size(); i++) {
+                    BufferedReader reader = new BufferedReader(new FileReader(runs.get(i)));
+                    readers.add(reader);
+                    Run run = new Run(reader, i);
+                    if (run.advance()) {
+                        queue.add(run);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return (lines != null) ? lines.hasNext() : !queue.isEmpty();
+        }
+
+        @Override
+        public String next() {
+            if (lines != null) {
+                return lines.next();
+            }
+            Run run = queue.poll();
+            if (run == null) {
+                throw new NoSuchElementException();
+            }
+            String line = run.head;
+            try {
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Error reading sorted run", e);
+            }
+            return line;
+        }
+
+        @Override
+        public void close() {
+            for (BufferedReader reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {}
+            }
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    private static class Run {
+        final BufferedReader reader;
+        final int index;
+        String head = null;
+
+        Run(BufferedReader reader, int index) {
+            this.reader = reader;
+            this.index = index;
+        }
+
+        boolean advance() throws IOException {
+            head = reader.readLine();
+            return head != null;
+        }
+    }
+}
@@ -31,6 +31,20 @@ public class FileUtils {
         return lines;
     }
 
+    /**
+     * Reads a text file into a single string, with line breaks replaced by spaces.
+     * Takes time linear in the size of the file.
+     * @param file
+     * @return
+     */
+    public static String readText(String file) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : readFile(file)) {
+            sb.append(line).append(' ');
+        }
+        return sb.toString().trim();
+    }
+
     public static void writeFile(List<String> lines, String file) {
         BufferedWriter writer = null;
         try {
@@ -0,0 +1,140 @@
+package edu.macalester.mscs.utils;
+
+import java.util.Arrays;
+
+/**
+ * Breaks a line of text into spans, without creating any Strings.
+ * Each span is either a contiguous sequence of word characters, or a filler
+ * sequence of non-word characters, and the two kinds alternate. Every character
+ * after the first word character occurs in some span (as distinct from
+ * String.split, which removes instances of the splitting character), while
+ * leading punctuation is ignored.
+ *
+ * A tokenizer can be reset and reused for any number of lines, so its arrays
+ * are only reallocated when a line has more spans than any line before it.
+ */
+public class LineTokenizer {
+
+    private String line = "";
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+    private boolean[] words = new boolean[64];
+    private int size = 0;
+
+    /**
+     * Tokenizes a new line, replacing the spans of the previous one
+     * @param line
+     * @return this tokenizer
+     */
+    public LineTokenizer reset(String line) {
+        this.line = line;
+        size = 0;
+        int i = 0;
+        // ignore leading punctuation
+        while (i < line.length() && !WordUtils.isWordCharacter(line.charAt(i))) {
+            i++;
+        }
+        while (i < line.length()) {
+            boolean word = WordUtils.isWordCharacter(line.charAt(i));
+            int start = i;
+            while (i < line.length() && WordUtils.isWordCharacter(line.charAt(i)) == word) {
+                i++;
+            }
+            add(start, i, word);
+        }
+        return this;
+    }
+
+    private void add(int start, int end, boolean word) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+            words = Arrays.copyOf(words, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        words[size] = word;
+        size++;
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    /**
+     * Returns the number of spans in the line
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    public int start(int i) {
+        return starts[i];
+    }
+
+    public int end(int i) {
+        return ends[i];
+    }
+
+    public int length(int i) {
+        return ends[i] - starts[i];
+    }
+
+    public boolean isWord(int i) {
+        return words[i];
+    }
+
+    /**
+     * Points the span view at span i
+     * @param i
+     * @param span
+     * @return span
+     */
+    public StringSpan span(int i, StringSpan span) {
+        return span.set(line, starts[i], ends[i]);
+    }
+
+    /**
+     * Returns span i as a new String
+     * @param i
+     * @return
+     */
+    public String get(int i) {
+        return line.substring(starts[i], ends[i]);
+    }
+
+    /**
+     * Returns true if span i is exactly the string s
+     * @param i
+     * @param s
+     * @return
+     */
+    public boolean equals(int i, String s) {
+        return length(i) == s.length() && line.startsWith(s, starts[i]);
+    }
+
+    /**
+     * Returns true if span i contains any of the characters in chars
+     * @param i
+     * @param chars
+     * @return
+     */
+    public boolean containsAny(int i, String chars) {
+        for (int j = starts[i]; j < ends[i]; j++) {
+            if (chars.indexOf(line.charAt(j)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if span i is capitalized, as in WordUtils.isCapitalized
+     * @param i
+     * @return
+     */
+    public boolean isCapitalized(int i) {
+        return WordUtils.isCapitalized(line, starts[i], ends[i]);
+    }
+}
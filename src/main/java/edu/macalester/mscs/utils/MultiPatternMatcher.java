@@ -0,0 +1,205 @@
+package edu.macalester.mscs.utils;
+
+import java.util.*;
+
+/**
+ * Finds which of many patterns occur in a text, scanning the text only once.
+ *
+ * The patterns are compiled into an Aho-Corasick automaton: a trie of the patterns, where each
+ * node also links to the node for its longest proper suffix that is in the trie. Matching a text
+ * takes time linear in its length plus the number of matches, regardless of the number of patterns,
+ * whereas checking text.contains(pattern) for every pattern rescans the text for each one.
+ *
+ * Each pattern is added with a value, and matching returns the values of every pattern that occurs
+ * anywhere in the text. As with String.contains, an empty pattern occurs in every text. The matcher
+ * can also find the leftmost-longest non-overlapping matches, which is what a rewriter replacing
+ * every pattern in a single pass needs.
+ *
+ * @param <T> the type of the values
+ */
+public class MultiPatternMatcher<T> {
+
+    private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+    private final List<List<T>> values = new ArrayList<>();
+    private final List<Integer> depths = new ArrayList<>();
+    private int[] failures = null;
+    private int[] outputLinks = null;
+
+    public MultiPatternMatcher() {
+        newNode();
+    }
+
+    /**
+     * Adds a pattern to the matcher. The same pattern can be added with several values.
+     * @param pattern
+     * @param value
+     */
+    public void add(String pattern, T value) {
+        if (failures != null) {
+            throw new IllegalStateException("Cannot add patterns to a matcher that has been used");
+        }
+        int node = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            Integer next = transitions.get(node).get(pattern.charAt(i));
+            if (next == null) {
+                next = newNode();
+                transitions.get(node).put(pattern.charAt(i), next);
+                depths.set(next, i + 1);
+            }
+            node = next;
+        }
+        values.get(node).add(value);
+    }
+
+    private int newNode() {
+        transitions.add(new HashMap<Character, Integer>());
+        values.add(new ArrayList<T>());
+        depths.add(0);
+        return transitions.size() - 1;
+    }
+
+    /**
+     * Links every node to its longest proper suffix in the trie, breadth first,
+     * and to the nearest of those suffixes that ends a pattern
+     */
+    private void compile() {
+        int size = transitions.size();
+        failures = new int[size];
+        outputLinks = new int[size];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : transitions.get(0).values()) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (Map.Entry<Character, Integer> entry : transitions.get(node).entrySet()) {
+                int child = entry.getValue();
+                int failure = failures[node];
+                while (failure > 0 && !transitions.get(failure).containsKey(entry.getKey())) {
+                    failure = failures[failure];
+                }
+                Integer next = transitions.get(failure).get(entry.getKey());
+                failures[child] = (next == null) ? 0 : next;
+                outputLinks[child] = values.get(failures[child]).isEmpty()
+                        ? outputLinks[failures[child]] : failures[child];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Returns the values of all the patterns that occur in the text, in order of first occurrence
+     * @param text
+     * @return
+     */
+    public Set<T> findAll(CharSequence text) {
+        if (failures == null) {
+            compile();
+        }
+        Set<T> found = new LinkedHashSet<>(values.get(0));
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            node = step(node, text.charAt(i));
+            for (int match = firstMatch(node); match > 0; match = outputLinks[match]) {
+                found.addAll(values.get(match));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns every non-empty occurrence of every pattern in the text, including overlapping ones,
+     * in order of where they end, and longest first for the same end.
+     * If a pattern was added with several values, the match has the first of them.
+     * @param text
+     * @return
+     */
+    public List<Match<T>> findMatches(CharSequence text) {
+        if (failures == null) {
+            compile();
+        }
+        List<Match<T>> all = new ArrayList<>();
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            node = step(node, text.charAt(i));
+            for (int match = firstMatch(node); match > 0; match = outputLinks[match]) {
+                all.add(new Match<>(i + 1 - depths.get(match), i + 1, values.get(match).get(0)));
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Returns the non-empty matches in the text that a left to right rewrite would replace:
+     * at the leftmost position where any pattern starts, the longest pattern starting there,
+     * and then the same again after the end of that match.
+     * If a pattern was added with several values, the match has the first of them.
+     * @param text
+     * @return
+     */
+    public List<Match<T>> findLeftmostLongest(CharSequence text) {
+        List<Match<T>> all = findMatches(text);
+        Collections.sort(all);
+        List<Match<T>> chosen = new ArrayList<>();
+        int end = 0;
+        for (Match<T> match : all) {
+            if (match.start >= end) {
+                chosen.add(match);
+                end = match.end;
+            }
+        }
+        return chosen;
+    }
+
+    private int step(int node, char c) {
+        Integer next = transitions.get(node).get(c);
+        while (next == null && node > 0) {
+            node = failures[node];
+            next = transitions.get(node).get(c);
+        }
+        return (next == null) ? 0 : next;
+    }
+
+    /**
+     * Returns the node itself if it ends a pattern, or else the nearest suffix that does
+     */
+    private int firstMatch(int node) {
+        return values.get(node).isEmpty() ? outputLinks[node] : node;
+    }
+
+    /**
+     * An occurrence of a pattern from start (inclusive) to end (exclusive), ordered by start and then longest first
+     * @param <T>
+     */
+    public static class Match<T> implements Comparable<Match<T>> {
+        private final int start;
+        private final int end;
+        private final T value;
+
+        Match(int start, int end, T value) {
+            this.start = start;
+            this.end = end;
+            this.value = value;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        @Override
+        public int compareTo(Match<T> o) {
+            if (start != o.start) {
+                return Integer.compare(start, o.start);
+            }
+            return Integer.compare(o.end, end);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package edu.macalester.mscs.utils;
+
+/**
+ * A mutable view of a range of characters in a String, used to look up words in hashed
+ * collections of Strings without creating a new String for every lookup.
+ *
+ * The hash code is the same as String.hashCode() for the same characters, and equals()
+ * accepts any CharSequence with the same characters. Since Map.containsKey(key) and
+ * Map.get(key) are specified to call key.equals(k), a span can be passed to the lookup
+ * methods of HashMap and HashSet of Strings. It must never be stored in one, since it is
+ * mutable: use toString() to get a String key for insertion.
+ */
+public class StringSpan implements CharSequence {
+
+    private String string = "";
+    private int start = 0;
+    private int end = 0;
+
+    public StringSpan() {}
+
+    public StringSpan(String string) {
+        set(string, 0, string.length());
+    }
+
+    public StringSpan set(String string, int start, int end) {
+        this.string = string;
+        this.start = start;
+        this.end = end;
+        return this;
+    }
+
+    public String getString() {
+        return string;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return string.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return string.subSequence(this.start + start, this.start + end);
+    }
+
+    public boolean contentEquals(CharSequence s) {
+        if (s.length() != length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != string.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof CharSequence && contentEquals((CharSequence) o);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + string.charAt(i);
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return string.substring(start, end);
+    }
+}
@@ -0,0 +1,679 @@
+package edu.macalester.mscs.utils;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * A positional inverted index over a text file, so that names can be counted and located
+ * without rescanning the text.
+ *
+ * The text is read as FileUtils.readFile reads it (one trimmed line at a time) and broken into
+ * tokens as LineTokenizer breaks it, so a token is a maximal run of word characters. Positions
+ * are token numbers from the start of the text. For every term the index holds the sorted list
+ * of its positions, and for every position it holds the term and the character offset of the
+ * token in the text as MatrixConstructor joins it (lines separated by single spaces). Lines and
+ * chapters map to the position of their first token, so a position can be mapped back to a line
+ * or chapter by binary search. Chapters start at every line matching the chapter pattern.
+ *
+ * A phrase is queried by its tokens, so "Jon Snow" finds "Jon Snow" and "Jon, Snow", but not
+ * "Jon-Snow", which is a single token.
+ *
+ * The index is written next to the text file in a binary format whose large arrays (the terms and
+ * offsets of every token, and the positions of every term) are memory mapped when it is read back.
+ * The file records the length and modification time of the text, and a hash of every line. When
+ * the text changes, only the lines between the unchanged beginning and end are tokenized again.
+ */
+public class TextIndex {
+
+    public static final String INDEX_SUFFIX = ".idx";
+    public static final String DEFAULT_CHAPTER_PATTERN = "(?i:chapter|prologue|epilogue)\\b.*";
+
+    private static final int MAGIC = 0x54494458; // "TIDX"
+    private static final int VERSION = 1;
+
+    private final Pattern chapterPattern;
+    private final long sourceLength;
+    private final long sourceModified;
+    private final long[] lineHashes;
+    private final int[] lineTokenStarts;
+    private final int[] lineCharStarts;
+    private final int[] chapterLines;
+    private final String[] chapterTitles;
+    private final String[] terms;
+    private final Map<String, Integer> termIds;
+    private final int[] postingStarts;
+    private final IntBuffer tokenTerms;
+    private final IntBuffer tokenOffsets;
+    private final IntBuffer postings;
+
+    private TextIndex(Pattern chapterPattern, long sourceLength, long sourceModified, long[] lineHashes,
+                      int[] lineTokenStarts, int[] lineCharStarts, int[] chapterLines, String[] chapterTitles,
+                      String[] terms, int[] postingStarts, IntBuffer tokenTerms, IntBuffer tokenOffsets, IntBuffer postings) {
+        this.chapterPattern = chapterPattern;
+        this.sourceLength = sourceLength;
+        this.sourceModified = sourceModified;
+        this.lineHashes = lineHashes;
+        this.lineTokenStarts = lineTokenStarts;
+        this.lineCharStarts = lineCharStarts;
+        this.chapterLines = chapterLines;
+        this.chapterTitles = chapterTitles;
+        this.terms = terms;
+        this.termIds = new HashMap<>();
+        for (int i = 0; i < terms.length; i++) {
+            termIds.put(terms[i], i);
+        }
+        this.postingStarts = postingStarts;
+        this.tokenTerms = tokenTerms;
+        this.tokenOffsets = tokenOffsets;
+        this.postings = postings;
+    }
+
+    /**
+     * Returns the index of the text file, reading it from the index file next to the text if that is
+     * up to date, and otherwise building or updating it and writing it back.
+     * @param textFile
+     * @return
+     */
+    public static TextIndex open(String textFile) {
+        return open(textFile, DEFAULT_CHAPTER_PATTERN);
+    }
+
+    /**
+     * Returns the index of the text file, reading it from the index file next to the text if that is
+     * up to date, and otherwise building or updating it and writing it back. An index file that cannot
+     * be read is rebuilt, and the reason is printed.
+     * @param textFile
+     * @param chapterPattern a regex that matches the whole of each chapter heading line
+     * @return
+     */
+    public static TextIndex open(String textFile, String chapterPattern) {
+        return open(textFile, chapterPattern, new Logger(true));
+    }
+
+    /**
+     * Returns the index of the text file, reading it from the index file next to the text if that is
+     * up to date, and otherwise building or updating it and writing it back. An index file that cannot
+     * be read, such as one of another version or a truncated one, is rebuilt, and the reason is logged.
+     * @param textFile
+     * @param chapterPattern a regex that matches the whole of each chapter heading line
+     * @param logger
+     * @return
+     */
+    public static TextIndex open(String textFile, String chapterPattern, Logger logger) {
+        File indexFile = new File(textFile + INDEX_SUFFIX);
+        TextIndex index = null;
+        if (indexFile.exists()) {
+            try {
+                index = readIndex(indexFile.getPath());
+            } catch (IOException | BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+                logger.log("Rebuilding " + indexFile + ", which could not be read: " + e);
+            }
+            if (index != null && !index.chapterPattern.pattern().equals(chapterPattern)) {
+                index = null;
+            } else if (index != null && index.isCurrent(textFile)) {
+                return index;
+            }
+        }
+        index = (index == null) ? build(textFile, chapterPattern) : index.update(textFile);
+        index.write(indexFile.getPath());
+        return index;
+    }
+
+    /**
+     * Builds an index of the text file from scratch
+     * @param textFile
+     * @param chapterPattern a regex that matches the whole of each chapter heading line
+     * @return
+     */
+    public static TextIndex build(String textFile, String chapterPattern) {
+        Builder builder = new Builder(Pattern.compile(chapterPattern));
+        for (String line : FileUtils.readFile(textFile)) {
+            builder.addLine(line);
+        }
+        File file = new File(textFile);
+        return builder.build(file.length(), file.lastModified());
+    }
+
+    /**
+     * Returns true if the text file has the same length and modification time as when it was indexed
+     * @param textFile
+     * @return
+     */
+    public boolean isCurrent(String textFile) {
+        File file = new File(textFile);
+        return file.length() == sourceLength && file.lastModified() == sourceModified;
+    }
+
+    /**
+     * Returns an index of the new contents of the text file. The tokens of the lines at the beginning
+     * and end of the text that have not changed are copied from this index, and only the lines between
+     * them are tokenized. Returns this index if no line has changed.
+     * @param textFile
+     * @return
+     */
+    public TextIndex update(String textFile) {
+        List<String> lines = FileUtils.readFile(textFile);
+        File file = new File(textFile);
+        int oldCount = getLineCount();
+        int prefix = 0;
+        while (prefix < lines.size() && prefix < oldCount && hash(lines.get(prefix)) == lineHashes[prefix]) {
+            prefix++;
+        }
+        if (prefix == lines.size() && prefix == oldCount && isCurrent(textFile)) {
+            return this;
+        }
+        int suffix = 0;
+        while (suffix < lines.size() - prefix && suffix < oldCount - prefix
+                && hash(lines.get(lines.size() - 1 - suffix)) == lineHashes[oldCount - 1 - suffix]) {
+            suffix++;
+        }
+        Builder builder = new Builder(chapterPattern);
+        for (int i = 0; i < lines.size(); i++) {
+            if (i < prefix) {
+                builder.copyLine(lines.get(i), this, i);
+            } else if (i >= lines.size() - suffix) {
+                builder.copyLine(lines.get(i), this, oldCount - (lines.size() - i));
+            } else {
+                builder.addLine(lines.get(i));
+            }
+        }
+        return builder.build(file.length(), file.lastModified());
+    }
+
+    //==========================================//
+    //                 Queries                  //
+    //==========================================//
+
+    /**
+     * Returns the positions of the first token of every occurrence of the phrase, in order
+     * @param phrase
+     * @return
+     */
+    public int[] find(String phrase) {
+        int[] ids = getTermIds(phrase);
+        if (ids == null) {
+            return new int[0];
+        }
+        // walk the postings of the rarest term of the phrase, and check the rest against the tokens
+        int rarest = 0;
+        for (int k = 1; k < ids.length; k++) {
+            if (getCount(ids[k]) < getCount(ids[rarest])) {
+                rarest = k;
+            }
+        }
+        int[] found = new int[getCount(ids[rarest])];
+        int size = 0;
+        for (int p = postingStarts[ids[rarest]]; p < postingStarts[ids[rarest] + 1]; p++) {
+            int start = postings.get(p) - rarest;
+            if (start >= 0 && start + ids.length <= getTokenCount() && matches(ids, start)) {
+                found[size++] = start;
+            }
+        }
+        return Arrays.copyOf(found, size);
+    }
+
+    /**
+     * Returns the number of occurrences of the phrase in the text
+     * @param phrase
+     * @return
+     */
+    public int count(String phrase) {
+        int[] ids = getTermIds(phrase);
+        if (ids == null) {
+            return 0;
+        } else if (ids.length == 1) {
+            return getCount(ids[0]);
+        } else {
+            return find(phrase).length;
+        }
+    }
+
+    /**
+     * Returns the number of occurrences of the phrase in each chapter.
+     * Occurrences before the first chapter heading are not counted.
+     * @param phrase
+     * @return
+     */
+    public int[] countByChapter(String phrase) {
+        int[] counts = new int[getChapterCount()];
+        for (int position : find(phrase)) {
+            int chapter = getChapter(position);
+            if (chapter >= 0) {
+                counts[chapter]++;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the ids of the terms of the phrase, or null if the phrase has no tokens
+     * or any of its terms do not occur in the text
+     */
+    private int[] getTermIds(String phrase) {
+        LineTokenizer tokens = new LineTokenizer().reset(phrase);
+        StringSpan span = new StringSpan();
+        int[] ids = new int[tokens.size()];
+        int size = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.isWord(i)) {
+                Integer id = termIds.get(tokens.span(i, span));
+                if (id == null) {
+                    return null;
+                }
+                ids[size++] = id;
+            }
+        }
+        return (size == 0) ? null : Arrays.copyOf(ids, size);
+    }
+
+    private boolean matches(int[] ids, int start) {
+        for (int k = 0; k < ids.length; k++) {
+            if (tokenTerms.get(start + k) != ids[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int getCount(int id) {
+        return postingStarts[id + 1] - postingStarts[id];
+    }
+
+    //==========================================//
+    //                Positions                 //
+    //==========================================//
+
+    public int getTokenCount() {
+        return tokenTerms.limit();
+    }
+
+    public int getLineCount() {
+        return lineHashes.length;
+    }
+
+    public int getChapterCount() {
+        return chapterLines.length;
+    }
+
+    public int getVocabularySize() {
+        return terms.length;
+    }
+
+    /**
+     * Returns the token at the position
+     * @param position
+     * @return
+     */
+    public String getToken(int position) {
+        return terms[tokenTerms.get(position)];
+    }
+
+    /**
+     * Returns the offset of the token at the position, in the text with its lines joined by spaces
+     * @param position
+     * @return
+     */
+    public int getCharOffset(int position) {
+        return tokenOffsets.get(position);
+    }
+
+    /**
+     * Returns the line (counting from 0) that contains the token at the position
+     * @param position
+     * @return
+     */
+    public int getLine(int position) {
+        // the last line whose first token is at or before the position
+        int low = 0;
+        int high = getLineCount() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (lineTokenStarts[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the chapter (counting from 0) that contains the token at the position,
+     * or -1 if it comes before the first chapter heading
+     * @param position
+     * @return
+     */
+    public int getChapter(int position) {
+        int line = getLine(position);
+        int chapter = Arrays.binarySearch(chapterLines, line);
+        return (chapter >= 0) ? chapter : -chapter - 2;
+    }
+
+    /**
+     * Returns the heading line of the chapter
+     * @param chapter
+     * @return
+     */
+    public String getChapterTitle(int chapter) {
+        return chapterTitles[chapter];
+    }
+
+    /**
+     * Returns the line (counting from 0) of the heading of the chapter
+     * @param chapter
+     * @return
+     */
+    public int getChapterLine(int chapter) {
+        return chapterLines[chapter];
+    }
+
+    /**
+     * Returns the position of the first token of the chapter
+     * @param chapter
+     * @return
+     */
+    public int getChapterStart(int chapter) {
+        return lineTokenStarts[chapterLines[chapter]];
+    }
+
+    /**
+     * Returns the offset of the heading line of the chapter, in the text with its lines joined by spaces
+     * @param chapter
+     * @return
+     */
+    public int getChapterCharOffset(int chapter) {
+        return lineCharStarts[chapterLines[chapter]];
+    }
+
+    //==========================================//
+    //                  Files                   //
+    //==========================================//
+
+    /**
+     * Writes the index to a file. The index is written to a temporary file that is then moved over the
+     * index file, so an index that is still mapped onto the old file keeps reading the old contents.
+     * @param indexFile
+     */
+    public void write(String indexFile) {
+        File target = new File(indexFile).getAbsoluteFile();
+        File temp = null;
+        DataOutputStream out = null;
+        try {
+            temp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, chapterPattern.pattern());
+            out.writeLong(sourceLength);
+            out.writeLong(sourceModified);
+            out.writeInt(getLineCount());
+            for (long hash : lineHashes) {
+                out.writeLong(hash);
+            }
+            writeInts(out, lineTokenStarts);
+            writeInts(out, lineCharStarts);
+            out.writeInt(getChapterCount());
+            writeInts(out, chapterLines);
+            for (String title : chapterTitles) {
+                writeString(out, title);
+            }
+            out.writeInt(getVocabularySize());
+            for (String term : terms) {
+                writeString(out, term);
+            }
+            writeInts(out, postingStarts);
+            out.writeInt(getTokenCount());
+            writeInts(out, tokenTerms);
+            writeInts(out, tokenOffsets);
+            writeInts(out, postings);
+            out.close();
+            out = null;
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            temp = null;
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing index " + indexFile, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {}
+            }
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads an index from a file. The tokens and postings are memory mapped rather than copied.
+     * @param indexFile
+     * @return
+     */
+    public static TextIndex read(String indexFile) {
+        try {
+            return readIndex(indexFile);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading index " + indexFile, e);
+        }
+    }
+
+    private static TextIndex readIndex(String indexFile) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+             FileChannel channel = file.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IllegalArgumentException(indexFile + " is not a text index.");
+            }
+            Pattern chapterPattern = Pattern.compile(readString(buffer));
+            long sourceLength = buffer.getLong();
+            long sourceModified = buffer.getLong();
+            long[] lineHashes = new long[buffer.getInt()];
+            for (int i = 0; i < lineHashes.length; i++) {
+                lineHashes[i] = buffer.getLong();
+            }
+            int[] lineTokenStarts = readInts(buffer, lineHashes.length + 1);
+            int[] lineCharStarts = readInts(buffer, lineHashes.length);
+            int chapterCount = buffer.getInt();
+            int[] chapterLines = readInts(buffer, chapterCount);
+            String[] chapterTitles = new String[chapterCount];
+            for (int i = 0; i < chapterCount; i++) {
+                chapterTitles[i] = readString(buffer);
+            }
+            String[] terms = new String[buffer.getInt()];
+            for (int i = 0; i < terms.length; i++) {
+                terms[i] = readString(buffer);
+            }
+            int[] postingStarts = readInts(buffer, terms.length + 1);
+            int tokenCount = buffer.getInt();
+            IntBuffer tokenTerms = mapInts(buffer, tokenCount);
+            IntBuffer tokenOffsets = mapInts(buffer, tokenCount);
+            IntBuffer postings = mapInts(buffer, tokenCount);
+            return new TextIndex(chapterPattern, sourceLength, sourceModified, lineHashes, lineTokenStarts,
+                    lineCharStarts, chapterLines, chapterTitles, terms, postingStarts, tokenTerms, tokenOffsets, postings);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] ints) throws IOException {
+        for (int i : ints) {
+            out.writeInt(i);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, IntBuffer ints) throws IOException {
+        for (int i = 0; i < ints.limit(); i++) {
+            out.writeInt(ints.get(i));
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int length) {
+        int[] ints = new int[length];
+        buffer.asIntBuffer().get(ints);
+        buffer.position(buffer.position() + 4 * length);
+        return ints;
+    }
+
+    private static IntBuffer mapInts(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(4 * length);
+        buffer.position(buffer.position() + 4 * length);
+        return slice.asIntBuffer();
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of the line, used to find the lines that changed
+     */
+    private static long hash(String line) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < line.length(); i++) {
+            hash ^= line.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Collects the tokens of the text line by line, and then inverts them into postings
+     */
+    private static class Builder {
+        private final Pattern chapterPattern;
+        private final List<String> terms = new ArrayList<>();
+        private final Map<String, Integer> termIds = new HashMap<>();
+        private final IntArray tokenTerms = new IntArray();
+        private final IntArray tokenOffsets = new IntArray();
+        private final List<Long> lineHashes = new ArrayList<>();
+        private final IntArray lineTokenStarts = new IntArray();
+        private final IntArray lineCharStarts = new IntArray();
+        private final IntArray chapterLines = new IntArray();
+        private final List<String> chapterTitles = new ArrayList<>();
+        private final LineTokenizer tokens = new LineTokenizer();
+        private final StringSpan span = new StringSpan();
+        private int charStart = 0;
+
+        Builder(Pattern chapterPattern) {
+            this.chapterPattern = chapterPattern;
+        }
+
+        void addLine(String line) {
+            startLine(line);
+            tokens.reset(line);
+            for (int i = 0; i < tokens.size(); i++) {
+                if (tokens.isWord(i)) {
+                    Integer id = termIds.get(tokens.span(i, span));
+                    addToken(id == null ? newTerm(tokens.get(i)) : id, charStart + tokens.start(i));
+                }
+            }
+            endLine(line);
+        }
+
+        /**
+         * Adds the line, copying its tokens from a line of another index with the same contents
+         */
+        void copyLine(String line, TextIndex index, int indexLine) {
+            startLine(line);
+            int lineOffset = index.lineCharStarts[indexLine];
+            for (int p = index.lineTokenStarts[indexLine]; p < index.lineTokenStarts[indexLine + 1]; p++) {
+                String term = index.getToken(p);
+                Integer id = termIds.get(term);
+                addToken(id == null ? newTerm(term) : id, charStart + index.getCharOffset(p) - lineOffset);
+            }
+            endLine(line);
+        }
+
+        private void startLine(String line) {
+            if (chapterPattern.matcher(line).matches()) {
+                chapterLines.add(lineHashes.size());
+                chapterTitles.add(line);
+            }
+            lineHashes.add(hash(line));
+            lineTokenStarts.add(tokenTerms.size());
+            lineCharStarts.add(charStart);
+        }
+
+        private void endLine(String line) {
+            // leading empty lines are trimmed off the joined text
+            if (charStart > 0 || !line.isEmpty()) {
+                charStart += line.length() + 1;
+            }
+        }
+
+        private int newTerm(String term) {
+            termIds.put(term, terms.size());
+            terms.add(term);
+            return terms.size() - 1;
+        }
+
+        private void addToken(int id, int offset) {
+            tokenTerms.add(id);
+            tokenOffsets.add(offset);
+        }
+
+        TextIndex build(long sourceLength, long sourceModified) {
+            // counting sort of the positions by term, which leaves each term's positions in order
+            int[] postingStarts = new int[terms.size() + 1];
+            for (int i = 0; i < tokenTerms.size(); i++) {
+                postingStarts[tokenTerms.get(i) + 1]++;
+            }
+            for (int i = 0; i < terms.size(); i++) {
+                postingStarts[i + 1] += postingStarts[i];
+            }
+            int[] next = Arrays.copyOf(postingStarts, terms.size());
+            int[] postings = new int[tokenTerms.size()];
+            for (int i = 0; i < tokenTerms.size(); i++) {
+                postings[next[tokenTerms.get(i)]++] = i;
+            }
+            long[] hashes = new long[lineHashes.size()];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = lineHashes.get(i);
+            }
+            lineTokenStarts.add(tokenTerms.size());
+            return new TextIndex(chapterPattern, sourceLength, sourceModified, hashes, lineTokenStarts.toArray(),
+                    lineCharStarts.toArray(), chapterLines.toArray(), chapterTitles.toArray(new String[chapterTitles.size()]),
+                    terms.toArray(new String[terms.size()]), postingStarts, IntBuffer.wrap(tokenTerms.toArray()),
+                    IntBuffer.wrap(tokenOffsets.toArray()), IntBuffer.wrap(postings));
+        }
+    }
+
+    private static class IntArray {
+        private int[] data = new int[1024];
+        private int size = 0;
+
+        void add(int i) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = i;
+        }
+
+        int get(int i) {
+            return data[i];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
@@ -13,8 +13,45 @@ public class WordUtils {
         return c == '-' || Character.isAlphabetic(c);
     }
 
+    /**
+     * Returns true if the word matches ([A-Z][a-z-]+)+, ie. "Jon" or "McDonald" but not "JON" or "jon"
+     * @param word
+     * @return
+     */
     public static boolean isCapitalized(String word) {
-        return word.matches("([A-Z][a-z-]+)+");
+        return isCapitalized(word, 0, word.length());
+    }
+
+    /**
+     * Returns true if the characters of s from start to end match ([A-Z][a-z-]+)+
+     * @param s
+     * @param start
+     * @param end
+     * @return
+     */
+    public static boolean isCapitalized(CharSequence s, int start, int end) {
+        if (end - start < 2 || !isUpperCase(s.charAt(start))) {
+            return false;
+        }
+        boolean afterUpperCase = true;
+        for (int i = start + 1; i < end; i++) {
+            char c = s.charAt(i);
+            if (isUpperCase(c)) {
+                if (afterUpperCase) {
+                    return false;
+                }
+                afterUpperCase = true;
+            } else if ((c >= 'a' && c <= 'z') || c == '-') {
+                afterUpperCase = false;
+            } else {
+                return false;
+            }
+        }
+        return !afterUpperCase;
+    }
+
+    private static boolean isUpperCase(char c) {
+        return c >= 'A' && c <= 'Z';
     }
 
     public static boolean containsWord(String input, String word) {